@@ -0,0 +1,147 @@
+package twiby.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The copy loop on its own: one GET from the local server written to a file,
+ * across buffer sizes and three ways of moving the bytes. CHANNEL is what
+ * Downloader does today (heap scratch array into a pooled direct buffer,
+ * positional channel writes); STREAM is the classic byte[] loop into a
+ * FileOutputStream; TRANSFER_FROM hands the copy to FileChannel.transferFrom
+ * in bufferSize steps.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CopyBenchmark {
+
+    public enum Strategy { STREAM, CHANNEL, TRANSFER_FROM }
+
+    @Param({"8192", "65536", "262144", "1048576"})
+    public int bufferSize;
+
+    @Param({"STREAM", "CHANNEL", "TRANSFER_FROM"})
+    public Strategy strategy;
+
+    @Param({LocalServer.RANDOM_FILE})
+    public String file;
+
+    private LocalServer server;
+    private HttpClient client;
+    private HttpRequest request;
+    private Path target;
+    private ByteBuffer buffer;
+    private byte[] scratch;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        server = new LocalServer(LocalServer.sampleFiles());
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        request = HttpRequest.newBuilder(URI.create(server.url(file, false))).build();
+        target = Files.createTempFile("twiby-copy", ".bin");
+        buffer = ByteBuffer.allocateDirect(bufferSize);
+        scratch = new byte[Math.min(bufferSize, 64 * 1024)];
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws IOException {
+        server.close();
+        Files.deleteIfExists(target);
+    }
+
+    @Benchmark
+    public long copy() throws Exception {
+        HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        long copied;
+        try (InputStream in = response.body()) {
+            copied = switch (strategy) {
+                case STREAM -> stream(in);
+                case CHANNEL -> channel(in);
+                case TRANSFER_FROM -> transferFrom(in);
+            };
+        }
+        if (copied != server.size(file)) {
+            throw new IllegalStateException("Copied " + copied + " of " + server.size(file) + " bytes");
+        }
+        return copied;
+    }
+
+    private long stream(InputStream in) throws IOException {
+        byte[] bytes = new byte[bufferSize];
+        long total = 0;
+        try (OutputStream out = Files.newOutputStream(target)) {
+            int n;
+            while ((n = in.read(bytes)) != -1) {
+                out.write(bytes, 0, n);
+                total += n;
+            }
+        }
+        return total;
+    }
+
+    /** Same shape as Downloader's read helper: block for the first bytes, then take what has arrived. */
+    private long channel(InputStream in) throws IOException {
+        long total = 0;
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (true) {
+                buffer.clear();
+                int read = 0;
+                while (buffer.hasRemaining()) {
+                    if (read > 0 && in.available() <= 0) break;
+                    int n = in.read(scratch, 0, Math.min(scratch.length, buffer.remaining()));
+                    if (n < 0) break;
+                    buffer.put(scratch, 0, n);
+                    read += n;
+                }
+                if (read == 0) break;
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    total += out.write(buffer, total);
+                }
+            }
+        }
+        return total;
+    }
+
+    private long transferFrom(InputStream in) throws IOException {
+        long total = 0;
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            var source = Channels.newChannel(in);
+            long n;
+            while ((n = out.transferFrom(source, total, bufferSize)) > 0) {
+                total += n;
+            }
+        }
+        return total;
+    }
+}
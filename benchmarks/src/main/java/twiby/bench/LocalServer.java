@@ -0,0 +1,130 @@
+package twiby.bench;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * In-process HTTP server the benchmarks download from, so results do not
+ * depend on a network. Files are held in memory and served under
+ * {@code /ranged/NAME} (Accept-Ranges, 206 answers) and {@code /plain/NAME}
+ * (whole body only), which makes the downloader pick its segmented or its
+ * single-stream path.
+ */
+final class LocalServer implements AutoCloseable {
+
+    /** Generated, so the larger transfers do not depend on what is checked in. */
+    static final String RANDOM_FILE = "random-32m.bin";
+
+    private static final int CHUNK = 64 * 1024;
+
+    private final Map<String, byte[]> files;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    LocalServer(Map<String, byte[]> files) throws IOException {
+        this.files = files;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/ranged/", exchange -> serve(exchange, true));
+        server.createContext("/plain/", exchange -> serve(exchange, false));
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * The bundled samples plus {@link #RANDOM_FILE}. Samples are looked up in
+     * {@code -Dtwiby.bench.samples}, the working directory and its parent.
+     */
+    static Map<String, byte[]> sampleFiles() {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        for (String name : new String[]{"sample-file-2.mp3", "sample_640x360.3gp"}) {
+            files.put(name, readSample(name));
+        }
+        byte[] random = new byte[32 * 1024 * 1024];
+        new Random(42).nextBytes(random);
+        files.put(RANDOM_FILE, random);
+        return files;
+    }
+
+    private static byte[] readSample(String name) {
+        String dir = System.getProperty("twiby.bench.samples");
+        Path[] candidates = dir != null
+                ? new Path[]{Path.of(dir, name)}
+                : new Path[]{Path.of(name), Path.of("..", name)};
+        for (Path candidate : candidates) {
+            if (Files.isRegularFile(candidate)) {
+                try {
+                    return Files.readAllBytes(candidate);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+        throw new IllegalStateException("Sample file " + name + " not found; run from the repository root"
+                + " or set -Dtwiby.bench.samples=DIR");
+    }
+
+    String url(String name, boolean ranged) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + (ranged ? "/ranged/" : "/plain/") + name;
+    }
+
+    int size(String name) {
+        return files.get(name).length;
+    }
+
+    private void serve(HttpExchange exchange, boolean ranged) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            byte[] data = files.get(path.substring(path.lastIndexOf('/') + 1));
+            boolean head = exchange.getRequestMethod().equals("HEAD");
+            if (data == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            exchange.getResponseHeaders().add("ETag", "\"" + data.length + "\"");
+            long start = 0;
+            long end = data.length - 1;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            int status = 200;
+            if (ranged) {
+                exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+                if (range != null && range.startsWith("bytes=")) {
+                    String[] bounds = range.substring(6).split("-", 2);
+                    start = Long.parseLong(bounds[0]);
+                    if (!bounds[1].isEmpty()) end = Math.min(end, Long.parseLong(bounds[1]));
+                    exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + data.length);
+                    status = 206;
+                }
+            }
+            long length = end - start + 1;
+            if (head) {
+                exchange.getResponseHeaders().add("Content-Length", String.valueOf(length));
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(status, length);
+            OutputStream out = exchange.getResponseBody();
+            for (long offset = start; offset <= end; offset += CHUNK) {
+                out.write(data, (int) offset, (int) Math.min(CHUNK, end - offset + 1));
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,101 @@
+package twiby.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What publishing progress costs per chunk, without any I/O. The variants
+ * follow the app's own code: LISTENERS calls a listener list the way
+ * Downloader does, and the listeners store volatile fields and mark a row
+ * dirty like DownloadItem and ProgressCoalescer. THROTTLED only calls them
+ * every 100 ms. COUNTER is the LongAdder bump DownloadMetrics does. NONE is
+ * the bare loop. Run with -t 4 to see contention between connections.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class ProgressBenchmark {
+
+    public enum Publish { NONE, COUNTER, THROTTLED, LISTENERS }
+
+    private static final long THROTTLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Param({"NONE", "COUNTER", "THROTTLED", "LISTENERS"})
+    public Publish publish;
+
+    @Param({"8192", "65536"})
+    public int chunkSize;
+
+    interface ProgressListener {
+        void progressChanged(long bytesDone, long totalBytes);
+    }
+
+    private final List<ProgressListener> listeners = new CopyOnWriteArrayList<>();
+    private final Set<Runnable> dirty = ConcurrentHashMap.newKeySet();
+    private final LongAdder written = new LongAdder();
+    private final AtomicLong totalBytesRead = new AtomicLong();
+    private final AtomicLong lastPublished = new AtomicLong();
+    private volatile long bytesDone;
+    private volatile long totalBytes;
+
+    @Setup
+    public void setUp() {
+        Runnable repaintRow = () -> { };
+        // Row model, store tracker and CLI reporter: three listeners, as in a GUI run with history
+        for (int i = 0; i < 3; i++) {
+            listeners.add((done, total) -> {
+                bytesDone = done;
+                totalBytes = total;
+                dirty.add(repaintRow);
+            });
+        }
+    }
+
+    /** One chunk: account the bytes, then publish as the variant says. */
+    @Benchmark
+    public long chunk(Blackhole blackhole) {
+        long done = totalBytesRead.addAndGet(chunkSize);
+        switch (publish) {
+            case NONE -> { }
+            case COUNTER -> written.add(chunkSize);
+            case THROTTLED -> {
+                long now = System.nanoTime();
+                long last = lastPublished.get();
+                if (now - last >= THROTTLE_NANOS && lastPublished.compareAndSet(last, now)) {
+                    fire(done);
+                }
+            }
+            case LISTENERS -> fire(done);
+        }
+        blackhole.consume(bytesDone);
+        return done;
+    }
+
+    private void fire(long done) {
+        // The row is usually still dirty from the last chunk, as between two coalescer ticks
+        listeners.forEach(l -> l.progressChanged(done, -1));
+    }
+}
@@ -0,0 +1,102 @@
+package twiby.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Whole downloads through the app's Downloader: single stream against a
+ * server without range support, and segmented with a fixed number of
+ * connections against one with it.
+ * <p>
+ * The app lives in the unnamed package, which a named package cannot import
+ * and JMH does not accept benchmarks in, so the Downloader is created by
+ * reflection. That happens in the per-invocation setup; the measured part is
+ * the plain {@link Runnable#run()}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransferBenchmark {
+
+    @Param({"sample-file-2.mp3", "sample_640x360.3gp", LocalServer.RANDOM_FILE})
+    public String file;
+
+    /** "single" or "segmented-N" for N connections. */
+    @Param({"single", "segmented-2", "segmented-4", "segmented-8"})
+    public String transfer;
+
+    private LocalServer server;
+    private Path outputDirectory;
+    private Constructor<?> newDownloader;
+    private Method setOutputDirectory;
+    private Method setMaxConnections;
+    private Runnable downloader;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        server = new LocalServer(LocalServer.sampleFiles());
+        outputDirectory = Files.createTempDirectory("twiby-bench");
+        Class<?> type = Class.forName("Downloader");
+        newDownloader = type.getConstructor(String.class, long.class, int.class);
+        setOutputDirectory = type.getMethod("setOutputDirectory", Path.class);
+        setMaxConnections = type.getMethod("setMaxConnections", int.class);
+    }
+
+    @Setup(Level.Invocation)
+    public void prepare() throws Exception {
+        boolean segmented = transfer.startsWith("segmented-");
+        int connections = segmented ? Integer.parseInt(transfer.substring("segmented-".length())) : 1;
+        downloader = (Runnable) newDownloader.newInstance(server.url(file, segmented), -1L, connections);
+        setOutputDirectory.invoke(downloader, outputDirectory);
+        // Keep the connection count fixed so runs compare like with like
+        setMaxConnections.invoke(downloader, connections);
+    }
+
+    @TearDown(Level.Invocation)
+    public void check() throws IOException {
+        Path target = outputDirectory.resolve(file);
+        long size = Files.exists(target) ? Files.size(target) : -1;
+        if (size != server.size(file)) {
+            throw new IllegalStateException("Downloaded " + size + " of " + server.size(file) + " bytes of " + file);
+        }
+        Files.delete(target);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws IOException {
+        server.close();
+        try (Stream<Path> leftovers = Files.walk(outputDirectory)) {
+            for (Path path : leftovers.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public void download() {
+        downloader.run();
+    }
+}
@@ -0,0 +1,57 @@
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The rate limits every transfer passes through: one global limit shared by
+ * all downloads plus an optional limit per host. Per-download limits live on
+ * the {@link Downloader} itself and are passed in by the caller.
+ */
+public class BandwidthLimits {
+
+    private static final BandwidthLimits SHARED = new BandwidthLimits();
+
+    private final RateLimiter global = new RateLimiter(RateLimiter.UNLIMITED);
+    private final Map<String, RateLimiter> perHost = new ConcurrentHashMap<>();
+
+    public static BandwidthLimits shared() {
+        return SHARED;
+    }
+
+    public void setGlobalRate(long bytesPerSecond) {
+        global.setRate(bytesPerSecond);
+    }
+
+    public long getGlobalRate() {
+        return global.getRate();
+    }
+
+    public void setHostRate(String host, long bytesPerSecond) {
+        forHost(host).setRate(bytesPerSecond);
+    }
+
+    public long getHostRate(String host) {
+        RateLimiter limiter = perHost.get(host.toLowerCase());
+        return limiter != null ? limiter.getRate() : RateLimiter.UNLIMITED;
+    }
+
+    /** Smallest read size any of the three limiters asks for. */
+    public int chunkSize(String host, RateLimiter perDownload, int preferred) {
+        int size = global.chunkSize(preferred);
+        RateLimiter hostLimiter = perHost.get(host);
+        if (hostLimiter != null) size = hostLimiter.chunkSize(size);
+        return perDownload.chunkSize(size);
+    }
+
+    /** Charges {@code bytes} to all three limiters, blocking as long as the strictest one requires. */
+    public void acquire(String host, RateLimiter perDownload, int bytes) throws InterruptedIOException {
+        perDownload.acquire(bytes);
+        RateLimiter hostLimiter = perHost.get(host);
+        if (hostLimiter != null) hostLimiter.acquire(bytes);
+        global.acquire(bytes);
+    }
+
+    private RateLimiter forHost(String host) {
+        return perHost.computeIfAbsent(host.toLowerCase(), h -> new RateLimiter(RateLimiter.UNLIMITED));
+    }
+}
@@ -0,0 +1,58 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recycles large direct buffers between transfers so the copy loop does not
+ * allocate per download. Buffer size and pool depth of the shared pool can be
+ * set with -Dtwiby.bufferSize and -Dtwiby.maxPooledBuffers.
+ */
+public class BufferPool {
+
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+    public static final int DEFAULT_MAX_POOLED = 64;
+
+    private static final BufferPool SHARED = new BufferPool(
+            Integer.getInteger("twiby.bufferSize", DEFAULT_BUFFER_SIZE),
+            Integer.getInteger("twiby.maxPooledBuffers", DEFAULT_MAX_POOLED));
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger freeCount = new AtomicInteger();
+
+    public BufferPool(int bufferSize, int maxPooled) {
+        if (bufferSize <= 0) throw new IllegalArgumentException("bufferSize must be positive");
+        this.bufferSize = bufferSize;
+        this.maxPooled = Math.max(0, maxPooled);
+    }
+
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    /** Returns a cleared buffer of {@link #getBufferSize()} bytes. */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        freeCount.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != bufferSize || !buffer.isDirect()) return;
+        // Beyond the cap the buffer is simply dropped and left to the GC
+        if (freeCount.incrementAndGet() <= maxPooled) {
+            free.offer(buffer);
+        } else {
+            freeCount.decrementAndGet();
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+}
@@ -0,0 +1,116 @@
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compressed transfer: what to put in Accept-Encoding, whether a resource is
+ * worth asking for compressed, and decoding a gzip or deflate response body
+ * while it streams in. {@link CountingInputStream} counts the bytes that
+ * actually crossed the wire, which differ from the decoded ones whenever the
+ * server compressed.
+ * <p>
+ * Range requests never ask for compression: a range of a gzip stream is not
+ * a range of the file, so segmented and resumed downloads stay identity.
+ */
+public final class ContentEncoding {
+
+    public static final String ACCEPT = "gzip, deflate";
+
+    // Formats that are already compressed; gzip would only cost CPU on both ends
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+            "mp3", "m4a", "aac", "ogg", "oga", "opus", "flac", "mp4", "m4v", "3gp", "webm", "mkv", "avi", "mov",
+            "jpg", "jpeg", "png", "gif", "webp", "avif", "zip", "gz", "tgz", "bz2", "xz", "zst", "7z", "rar",
+            "jar", "apk", "dmg", "iso", "pdf", "woff", "woff2");
+    private static final Set<String> COMPRESSED_TYPES = Set.of(
+            "application/zip", "application/gzip", "application/x-gzip", "application/x-bzip2", "application/x-xz",
+            "application/zstd", "application/x-7z-compressed", "application/vnd.rar", "application/java-archive",
+            "application/pdf", "font/woff", "font/woff2");
+
+    private ContentEncoding() {}
+
+    /**
+     * False for media and archives, judged by the URL's extension and, if the
+     * server told us, the content type; true for everything else.
+     */
+    public static boolean worthCompressing(String urlString, String contentType) {
+        if (COMPRESSED_EXTENSIONS.contains(LinkHarvester.extensionOf(urlString))) return false;
+        if (contentType == null) return true;
+        String type = contentType.split(";", 2)[0].trim().toLowerCase(Locale.ROOT);
+        if (type.startsWith("audio/") || type.startsWith("video/")) return false;
+        if (type.startsWith("image/")) return type.equals("image/svg+xml") || type.equals("image/bmp");
+        return !COMPRESSED_TYPES.contains(type);
+    }
+
+    /** True if a Content-Encoding header means the body is not the file itself. */
+    public static boolean isEncoded(String contentEncoding) {
+        return contentEncoding != null && !contentEncoding.isBlank() && !contentEncoding.trim().equalsIgnoreCase("identity");
+    }
+
+    /**
+     * Wraps {@code body} so reads return the decoded content. Encodings we did
+     * not ask for (e.g. br) are refused rather than saved as if they were the file.
+     */
+    public static InputStream decode(InputStream body, String contentEncoding) throws IOException {
+        if (!isEncoded(contentEncoding)) return body;
+        String encoding = contentEncoding.trim().toLowerCase(Locale.ROOT);
+        switch (encoding) {
+            case "gzip", "x-gzip" -> {
+                return new GZIPInputStream(body, 8192);
+            }
+            case "deflate" -> {
+                // Meant to be zlib-wrapped, but some servers send raw deflate; the zlib header tells them apart
+                PushbackInputStream in = new PushbackInputStream(body, 2);
+                int first = in.read();
+                int second = first >= 0 ? in.read() : -1;
+                if (second >= 0) in.unread(second);
+                if (first >= 0) in.unread(first);
+                boolean zlib = first >= 0 && second >= 0 && (first & 0x0F) == 8 && ((first << 8) | second) % 31 == 0;
+                return new InflaterInputStream(in, new Inflater(!zlib), 8192);
+            }
+            default -> {
+                body.close();
+                throw new FatalDownloadException("Unsupported Content-Encoding: " + contentEncoding);
+            }
+        }
+    }
+
+    /** Counts the bytes read through it, i.e. before any decoding stacked on top. */
+    public static class CountingInputStream extends FilterInputStream {
+        private volatile long count = 0;
+
+        public CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashes a download while it is being written, on a thread of its own. The
+ * writers only report which ranges they wrote; the hasher reads the file from
+ * the start as far as it is written without a gap, normally while the bytes
+ * are still in the page cache, so every byte is read back exactly once and no
+ * connection ever waits for the digest. Whatever is left when the download
+ * ends, usually just the last chunk, is hashed by {@link #finish}.
+ */
+public class ContentHasher {
+
+    public static final String SHA_256 = "SHA-256";
+
+    private static final int READ_SIZE = 64 * 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final MessageDigest digest;
+    // Reported by the writers, not yet seen by the hasher thread: inclusive {start, end}
+    private final ConcurrentLinkedQueue<long[]> reported = new ConcurrentLinkedQueue<>();
+    // Hasher thread only: written but beyond the frontier, start -> inclusive end
+    private final TreeMap<Long, Long> ahead = new TreeMap<>();
+    private FileChannel file;
+    private Thread thread;
+    private volatile long frontier = 0;
+    // Hashing stops here; the file size once finish() knows it
+    private volatile long limit = Long.MAX_VALUE;
+    private volatile boolean stopped = false;
+    private volatile IOException failure;
+
+    public ContentHasher(String algorithm) {
+        try {
+            this.digest = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unsupported hash algorithm " + algorithm, e);
+        }
+    }
+
+    /**
+     * Starts hashing {@code file} in the background. A platform thread: hashing
+     * is pure CPU work, which on a virtual thread would keep the connections
+     * sharing its carrier from running.
+     */
+    public void start(FileChannel file) {
+        this.file = file;
+        thread = Thread.ofPlatform().name("hasher").daemon().start(this::run);
+    }
+
+    /** Notes bytes that were already on disk before hashing started, e.g. on resume. */
+    public void alreadyWritten(long start, long end) {
+        written(start, end);
+    }
+
+    /** Called after bytes {@code start} to {@code end} were written; never blocks. */
+    public void written(long start, long end) {
+        if (end < start || end < frontier) return; // Fetched twice, already hashed
+        reported.add(new long[]{start, end});
+        if (thread != null && start <= frontier) LockSupport.unpark(thread);
+    }
+
+    /** Hashes whatever is left up to {@code size} and returns the digest as lowercase hex. */
+    public String finish(long size) throws IOException, InterruptedException {
+        if (thread == null) throw new IllegalStateException("Hasher was never started");
+        limit = size;
+        written(frontier, size - 1);
+        LockSupport.unpark(thread);
+        thread.join();
+        if (failure != null) throw failure;
+        if (frontier != size) {
+            throw new IOException("Hashed " + frontier + " of " + size + " bytes");
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /** Stops the hasher thread without a result, e.g. when the attempt failed; it never interrupts the file. */
+    public void stop() {
+        stopped = true;
+        if (thread != null) LockSupport.unpark(thread);
+    }
+
+    private void run() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(READ_SIZE);
+        try {
+            while (!stopped && frontier < limit) {
+                long[] range;
+                while ((range = reported.poll()) != null) {
+                    ahead.merge(range[0], range[1], Math::max);
+                }
+                if (!catchUp(buffer)) LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /** Hashes every reported range that starts at or before the frontier; false if there was none. */
+    private boolean catchUp(ByteBuffer buffer) throws IOException {
+        boolean progressed = false;
+        Map.Entry<Long, Long> next;
+        while (!stopped && (next = ahead.firstEntry()) != null && next.getKey() <= frontier && frontier < limit) {
+            ahead.pollFirstEntry();
+            long end = Math.min(next.getValue(), limit - 1);
+            if (end >= frontier) {
+                readInto(buffer, frontier, end);
+                progressed = true;
+            }
+        }
+        return progressed;
+    }
+
+    private void readInto(ByteBuffer buffer, long start, long end) throws IOException {
+        long position = start;
+        while (position <= end) {
+            if (stopped) return;
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position + 1));
+            int read = file.read(buffer, position);
+            if (read <= 0) throw new IOException("File ended at " + position + " while hashing");
+            buffer.flip();
+            digest.update(buffer);
+            position += read;
+            frontier = position;
+        }
+    }
+}
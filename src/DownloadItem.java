@@ -0,0 +1,112 @@
+/**
+ * One row of the download list: the state the renderer draws, updated from
+ * the download thread. Every change just marks the row dirty; the list model
+ * repaints it on the next coalescer tick.
+ */
+public class DownloadItem implements DownloadListener {
+
+    private final String url;
+    private final String fileName;
+    private final Runnable onChange;
+    private volatile LatencyHistogram uiCost;
+
+    private volatile String status = "Waiting...";
+    private volatile long bytesDone = 0;
+    private volatile long totalBytes = -1;
+    private volatile boolean finished = false;
+    private volatile boolean completed = false;
+    private volatile int retries = 0;
+    private volatile DownloadMetrics metrics;
+
+    DownloadItem(String url, LatencyHistogram uiCost, Runnable onChange) {
+        this.url = url;
+        this.fileName = Downloader.fileNameFor(url);
+        this.uiCost = uiCost;
+        this.onChange = onChange;
+    }
+
+    public String getUrl() { return url; }
+    public String getFileName() { return fileName; }
+    public String getStatus() { return status; }
+    public long getBytesDone() { return bytesDone; }
+    public long getTotalBytes() { return totalBytes; }
+    public boolean isFinished() { return finished; }
+    public boolean isCompleted() { return completed; }
+    /** EDT time this row costs, see {@link EdtWatchdog#uiCostOf}; shared with other rows once finished. */
+    public LatencyHistogram getUiCost() { return uiCost; }
+
+    /** Moving-average speed in bytes/s while the download runs, 0 otherwise. */
+    public double getSpeed() {
+        DownloadMetrics m = metrics;
+        return m != null && !finished ? m.getAverageSpeed() : 0;
+    }
+
+    /** Seconds left at the current speed, or -1 if that cannot be told. */
+    public long getEtaSeconds() {
+        DownloadMetrics m = metrics;
+        return m != null && !finished ? m.getEtaSeconds() : -1;
+    }
+
+    @Override
+    public void statusChanged(Downloader downloader, String status) {
+        if (finished) return;
+        this.status = status;
+        onChange.run();
+    }
+
+    @Override
+    public void progressChanged(Downloader downloader, long bytesDone, long totalBytes) {
+        this.metrics = downloader.getMetrics();
+        this.bytesDone = bytesDone;
+        this.totalBytes = totalBytes;
+        onChange.run();
+    }
+
+    @Override
+    public void retrying(Downloader downloader, int attempt, int maxRetries, long delayMillis, Throwable cause) {
+        retries = downloader.getRetryCount();
+        statusChanged(downloader, String.format("Retry %d/%d in %.1f s: %s",
+                attempt, maxRetries, delayMillis / 1000.0, Downloader.describe(cause)));
+    }
+
+    @Override
+    public void completed(Downloader downloader) {
+        finish(retries > 0 ? "Status: Selesai (" + retries + " retries)" : "Status: Selesai");
+        completed = true;
+        onChange.run();
+    }
+
+    @Override
+    public void failed(Downloader downloader, Throwable error) {
+        finish("Status: Error! " + error.getMessage() + (retries > 0 ? " (after " + retries + " retries)" : ""));
+        onChange.run();
+        error.printStackTrace();
+    }
+
+    @Override
+    public void cancelled(Downloader downloader) {
+        finish("Status: Dibatalkan");
+        onChange.run();
+    }
+
+    /** Shows a download from an earlier session as it ended. */
+    void restore(DownloadRecord record) {
+        bytesDone = record.getBytesDone();
+        totalBytes = record.getTotalBytes();
+        switch (record.getStatus()) {
+            case COMPLETED -> {
+                finish("Status: Selesai");
+                completed = true;
+            }
+            case FAILED -> finish("Status: Error! " + record.getMessage());
+            case CANCELLED -> finish("Status: Dibatalkan");
+            default -> status = "Waiting...";
+        }
+    }
+
+    private void finish(String finalStatus) {
+        status = finalStatus;
+        finished = true;
+        uiCost = EdtWatchdog.shared().finishedUiCost(url, uiCost);
+    }
+}
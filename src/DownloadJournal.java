@@ -0,0 +1,186 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+
+/**
+ * Sidecar checkpoint written next to a partial download ("file.mp3.twiby").
+ * It remembers the URL, the remote validators and which byte ranges are
+ * already on disk, so an interrupted download can continue where it stopped.
+ */
+public class DownloadJournal {
+
+    public static final String SUFFIX = ".twiby";
+
+    private final Path path;
+    private final String url;
+    private final long totalSize;
+    private final String etag;
+    private final String lastModified;
+    // Sorted, non-overlapping, inclusive [start, end] pairs
+    private final List<long[]> completed = new ArrayList<>();
+
+    public DownloadJournal(String fileName, String url, RemoteFileInfo info) {
+        this(Path.of(fileName + SUFFIX), url, info.getSize(), info.getEtag(), info.getLastModified());
+    }
+
+    private DownloadJournal(Path path, String url, long totalSize, String etag, String lastModified) {
+        this.path = path;
+        this.url = url;
+        this.totalSize = totalSize;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    /** Loads the journal for {@code fileName}, or returns null if there is none. */
+    public static DownloadJournal load(String fileName) throws IOException {
+        Path path = Path.of(fileName + SUFFIX);
+        return Files.exists(path) ? read(path) : null;
+    }
+
+    /** Returns every journal found in {@code directory}; unreadable ones are skipped. */
+    public static List<DownloadJournal> findAll(Path directory) {
+        List<DownloadJournal> journals = new ArrayList<>();
+        File[] files = directory.toFile().listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) return journals;
+        for (File file : files) {
+            try {
+                journals.add(read(file.toPath()));
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Skipping unreadable journal " + file + ": " + e.getMessage());
+            }
+        }
+        return journals;
+    }
+
+    private static DownloadJournal read(Path path) throws IOException {
+        Properties props = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            props.load(reader);
+        }
+        DownloadJournal journal = new DownloadJournal(path,
+                props.getProperty("url"),
+                Long.parseLong(props.getProperty("totalSize", "-1")),
+                props.getProperty("etag"),
+                props.getProperty("lastModified"));
+        String ranges = props.getProperty("completed", "");
+        for (String range : ranges.split(",")) {
+            if (range.isBlank()) continue;
+            String[] bounds = range.split("-");
+            journal.markCompleted(Long.parseLong(bounds[0]), Long.parseLong(bounds[1]));
+        }
+        return journal;
+    }
+
+    /** True if the remote file still looks like the one this journal was written for. */
+    public boolean matches(RemoteFileInfo info) {
+        if (info.getSize() != totalSize) return false;
+        if (etag != null || info.getEtag() != null) {
+            return Objects.equals(etag, info.getEtag());
+        }
+        return Objects.equals(lastModified, info.getLastModified());
+    }
+
+    public synchronized void markCompleted(long start, long end) {
+        if (end < start) return;
+        int i = 0;
+        while (i < completed.size() && completed.get(i)[1] + 1 < start) i++;
+        long mergedStart = start;
+        long mergedEnd = end;
+        while (i < completed.size() && completed.get(i)[0] <= end + 1) {
+            long[] existing = completed.remove(i);
+            mergedStart = Math.min(mergedStart, existing[0]);
+            mergedEnd = Math.max(mergedEnd, existing[1]);
+        }
+        completed.add(i, new long[]{mergedStart, mergedEnd});
+    }
+
+    /** Byte ranges already on disk, in file order. */
+    public synchronized List<long[]> completedRanges() {
+        List<long[]> copy = new ArrayList<>();
+        for (long[] range : completed) copy.add(range.clone());
+        return copy;
+    }
+
+    /** Byte ranges still to be fetched, in file order. */
+    public synchronized List<long[]> missingRanges() {
+        List<long[]> missing = new ArrayList<>();
+        long next = 0;
+        for (long[] range : completed) {
+            if (range[0] > next) missing.add(new long[]{next, range[0] - 1});
+            next = range[1] + 1;
+        }
+        if (next < totalSize) missing.add(new long[]{next, totalSize - 1});
+        return missing;
+    }
+
+    /** Bytes already on disk from {@code position} on without a gap; 0 if that byte is missing. */
+    public synchronized long contiguousFrom(long position) {
+        for (long[] range : completed) {
+            if (range[0] > position) break;
+            if (range[1] >= position) return range[1] - position + 1;
+        }
+        return 0;
+    }
+
+    public synchronized long completedBytes() {
+        long bytes = 0;
+        for (long[] range : completed) bytes += range[1] - range[0] + 1;
+        return bytes;
+    }
+
+    /**
+     * Writes the journal. {@code data}, the part file, is forced to disk first
+     * and only ranges written before that are recorded, so after a crash or
+     * power loss the journal never vouches for bytes that did not make it.
+     */
+    public void save(FileChannel data) throws IOException {
+        List<long[]> ranges = completedRanges();
+        data.force(false);
+        write(ranges);
+    }
+
+    private synchronized void write(List<long[]> ranges) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("url", url);
+        props.setProperty("totalSize", Long.toString(totalSize));
+        if (etag != null) props.setProperty("etag", etag);
+        if (lastModified != null) props.setProperty("lastModified", lastModified);
+        StringBuilder text = new StringBuilder();
+        for (long[] range : ranges) {
+            if (text.length() > 0) text.append(',');
+            text.append(range[0]).append('-').append(range[1]);
+        }
+        props.setProperty("completed", text.toString());
+        StringWriter contents = new StringWriter();
+        props.store(contents, "TwibyDownloader resume journal");
+
+        // Write next to the real journal and swap it in so a crash never leaves half a file
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = StandardCharsets.UTF_8.encode(contents.toString());
+            while (bytes.hasRemaining()) out.write(bytes);
+            out.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void delete() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    public String getUrl() { return url; }
+    public long getTotalSize() { return totalSize; }
+}
@@ -0,0 +1,55 @@
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Backing model of the download list. Rows are only appended, so each item
+ * keeps its index and a change repaints exactly that row.
+ */
+public class DownloadListModel extends AbstractListModel<DownloadItem> {
+
+    private final List<DownloadItem> items = new ArrayList<>();
+    private final ProgressCoalescer progressCoalescer;
+
+    public DownloadListModel(ProgressCoalescer progressCoalescer) {
+        this.progressCoalescer = progressCoalescer;
+    }
+
+    /** Appends a row for {@code url}. Must be called on the EDT. */
+    public DownloadItem add(String url) {
+        return add(url, EdtWatchdog.shared().uiCostOf(url));
+    }
+
+    /** Appends a row showing a finished download from the store's history. */
+    public DownloadItem addHistory(DownloadRecord record) {
+        // Finished already, so no series of its own
+        DownloadItem item = add(record.getUrl(), EdtWatchdog.shared().sharedUiCost());
+        item.restore(record);
+        return item;
+    }
+
+    private DownloadItem add(String url, LatencyHistogram uiCost) {
+        int row = items.size();
+        // Runs on the EDT once per coalescer tick, however many events the download sent
+        Runnable repaintRow = () -> {
+            long start = System.nanoTime();
+            fireContentsChanged(this, row, row);
+            // The item's, not uiCost: it moves to the shared histogram when the download ends
+            items.get(row).getUiCost().record(System.nanoTime() - start);
+        };
+        DownloadItem item = new DownloadItem(url, uiCost, () -> progressCoalescer.markDirty(repaintRow));
+        items.add(item);
+        fireIntervalAdded(this, row, row);
+        return item;
+    }
+
+    @Override
+    public int getSize() {
+        return items.size();
+    }
+
+    @Override
+    public DownloadItem getElementAt(int index) {
+        return items.get(index);
+    }
+}
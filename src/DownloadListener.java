@@ -0,0 +1,26 @@
+/**
+ * Receives events from a {@link Downloader}. Callbacks run on the thread doing
+ * the transfer, so UI subscribers must hop to their own thread themselves.
+ */
+public interface DownloadListener {
+
+    default void statusChanged(Downloader downloader, String status) {}
+
+    /** {@code totalBytes} is -1 when the server did not say how big the file is. */
+    default void progressChanged(Downloader downloader, long bytesDone, long totalBytes) {}
+
+    /** A transfer failed and will be tried again after {@code delayMillis}; {@code attempt} counts from 1. */
+    default void retrying(Downloader downloader, int attempt, int maxRetries, long delayMillis, Throwable cause) {}
+
+    /**
+     * More of the file is readable from its start, see {@link Downloader#getReadablePrefix()}.
+     * Only sent in stream-friendly mode.
+     */
+    default void readablePrefixChanged(Downloader downloader, long bytes) {}
+
+    default void completed(Downloader downloader) {}
+
+    default void failed(Downloader downloader, Throwable error) {}
+
+    default void cancelled(Downloader downloader) {}
+}
@@ -1,7 +1,12 @@
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import java.awt.*;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 public class DownloadManagerGUI {
@@ -9,15 +14,34 @@ public class DownloadManagerGUI {
     private JFrame frame;
     private JPanel mainPanel;
     private RoundedButton newTaskButton;
-    private JPanel downloadListPanel;
+    private JList<DownloadItem> downloadList;
 
     private static final Color BLEU_DE_FRANCE = Color.decode("#2D96F6");
     private static final Color LIGHT_GRAY = Color.decode("#F2F2F2");
     private static final Color QUILL_GREY = Color.decode("#A8A8A8");
 
+    // -Dtwiby.duplicates=SKIP or HARD_LINK turns on hashing and deduplication
+    private static final Downloader.DuplicatePolicy DUPLICATE_POLICY =
+            Downloader.DuplicatePolicy.valueOf(System.getProperty("twiby.duplicates", "DOWNLOAD"));
+    // A preview opens once this much of the file's start is in, or the whole file if it is smaller
+    private static final long PREVIEW_START_BYTES = 512 * 1024;
+
     private Map<String, Downloader> activeDownloads = new HashMap<>();
+    private final DownloadScheduler scheduler = new DownloadScheduler();
+    private final ProgressCoalescer progressCoalescer = new ProgressCoalescer();
+    private final DownloadListModel downloadListModel = new DownloadListModel(progressCoalescer);
+    private DownloadStore store;
 
     public DownloadManagerGUI() {
+        try {
+            store = DownloadStore.open(Path.of(DownloadStore.DEFAULT_FILE));
+        } catch (IOException e) {
+            // Still usable, the queue just won't survive a restart
+            System.err.println("Could not open download history: " + e.getMessage());
+        }
+        // Before any window, so every event the UI handles is timed
+        EdtWatchdog.shared().installIfEnabled();
+        MetricsServer.startIfConfigured();
         createAndShowGUI();
     }
 
@@ -52,12 +76,40 @@ public class DownloadManagerGUI {
         viewSourceButton.setBorder(new EmptyBorder(8, 20, 8, 20));
         headerPanel.add(viewSourceButton);
 
+        RoundedButton harvestButton = new RoundedButton("Harvest Links");
+        harvestButton.setFont(new Font("Arial", Font.BOLD, 14));
+        harvestButton.setBackground(BLEU_DE_FRANCE);
+        harvestButton.setForeground(Color.WHITE);
+        harvestButton.setFocusPainted(false);
+        harvestButton.setBorder(new EmptyBorder(8, 20, 8, 20));
+        headerPanel.add(harvestButton);
+
+        RoundedButton pauseQueueButton = new RoundedButton("Pause Queue");
+        pauseQueueButton.setFont(new Font("Arial", Font.BOLD, 14));
+        pauseQueueButton.setBackground(BLEU_DE_FRANCE);
+        pauseQueueButton.setForeground(Color.WHITE);
+        pauseQueueButton.setFocusPainted(false);
+        pauseQueueButton.setBorder(new EmptyBorder(8, 20, 8, 20));
+        headerPanel.add(pauseQueueButton);
+
+        RoundedButton speedLimitButton = new RoundedButton("Speed Limit");
+        speedLimitButton.setFont(new Font("Arial", Font.BOLD, 14));
+        speedLimitButton.setBackground(BLEU_DE_FRANCE);
+        speedLimitButton.setForeground(Color.WHITE);
+        speedLimitButton.setFocusPainted(false);
+        speedLimitButton.setBorder(new EmptyBorder(8, 20, 8, 20));
+        headerPanel.add(speedLimitButton);
+
         mainPanel.add(headerPanel, BorderLayout.NORTH);
 
-        downloadListPanel = new JPanel();
-        downloadListPanel.setLayout(new BoxLayout(downloadListPanel, BoxLayout.Y_AXIS));
-        downloadListPanel.setBackground(LIGHT_GRAY);
-        JScrollPane scrollPane = new JScrollPane(downloadListPanel);
+        // Rows are painted by one shared renderer, so only visible rows cost anything
+        DownloadItemPanel itemRenderer = new DownloadItemPanel();
+        downloadList = new JList<>(downloadListModel);
+        downloadList.setCellRenderer(itemRenderer);
+        // A fixed height spares the list from measuring every row to lay itself out
+        downloadList.setFixedCellHeight(itemRenderer.getPreferredSize().height);
+        downloadList.setBackground(LIGHT_GRAY);
+        JScrollPane scrollPane = new JScrollPane(downloadList);
         scrollPane.setBorder(BorderFactory.createEmptyBorder());
 
         mainPanel.add(scrollPane, BorderLayout.CENTER);
@@ -69,7 +121,37 @@ public class DownloadManagerGUI {
             String url = dialog.getEnteredUrl();
             long fileSize = dialog.getFileSize();
             if (url != null && !url.isEmpty()) {
-                startDownload(url, fileSize);
+                startDownload(url, fileSize, dialog.getExpectedChecksum(), dialog.getMirrors(), dialog.isPreviewRequested());
+            }
+        });
+
+        harvestButton.addActionListener(e -> {
+            HarvestDialog dialog = new HarvestDialog(frame);
+            dialog.setVisible(true);
+            startDownloads(dialog.getChosenLinks());
+        });
+
+        pauseQueueButton.addActionListener(e -> {
+            if (scheduler.isPaused()) {
+                scheduler.resume();
+                pauseQueueButton.setText("Pause Queue");
+            } else {
+                scheduler.pause();
+                pauseQueueButton.setText("Resume Queue");
+            }
+        });
+
+        speedLimitButton.addActionListener(e -> {
+            long currentKb = BandwidthLimits.shared().getGlobalRate() / 1024;
+            String input = JOptionPane.showInputDialog(frame,
+                    "Global speed limit in KB/s (0 = unlimited):", currentKb);
+            if (input == null) return;
+            try {
+                long limitKb = Long.parseLong(input.trim());
+                // Applies immediately, including to downloads that are already running
+                BandwidthLimits.shared().setGlobalRate(limitKb * 1024);
+            } catch (NumberFormatException ex) {
+                JOptionPane.showMessageDialog(frame, "Angka tidak valid: " + input, "Error", JOptionPane.ERROR_MESSAGE);
             }
         });
 
@@ -104,31 +186,11 @@ public class DownloadManagerGUI {
             // Action tombol
             okButton.addActionListener(ev -> {
                 String url = urlField.getText().trim();
+                inputDialog.dispose();
                 if (!url.isEmpty()) {
-                    try {
-                        String source = WebUtils.readWebsiteSource(url);
-
-                        JDialog sourceDialog = new JDialog(frame, "Website Source", true);
-                        sourceDialog.setSize(700, 500);
-                        sourceDialog.setLocationRelativeTo(frame);
-
-                        JTextArea textArea = new JTextArea(source, 30, 80);
-                        textArea.setFont(new Font("Consolas", Font.PLAIN, 12));
-                        textArea.setLineWrap(true);
-                        textArea.setWrapStyleWord(true);
-                        textArea.setEditable(false);
-
-                        JScrollPane sourceScrollPane = new JScrollPane(textArea);
-                        sourceScrollPane.setBorder(BorderFactory.createEmptyBorder());
-
-                        sourceDialog.add(sourceScrollPane, BorderLayout.CENTER);
-                        sourceDialog.setVisible(true);
-
-                    } catch (Exception ex) {
-                        JOptionPane.showMessageDialog(frame, "Error: " + ex.getMessage());
-                    }
+                    // Fetches off the EDT and fills in the text as it arrives
+                    new SourceViewerDialog(frame, url).showSource();
                 }
-                inputDialog.dispose();
             });
 
             cancelButton.addActionListener(ev -> inputDialog.dispose());
@@ -138,24 +200,127 @@ public class DownloadManagerGUI {
 
         frame.setContentPane(mainPanel);
         frame.setVisible(true);
+
+        restoreSession();
+    }
+
+    // Show the history and continue whatever was queued or running when the app last closed
+    private void restoreSession() {
+        if (store != null) {
+            for (DownloadRecord record : store.all()) {
+                if (record.isFinished()) {
+                    downloadListModel.addHistory(record);
+                } else {
+                    startDownload(record.getUrl(), record.getTotalBytes(), record.getExpectedChecksum(),
+                            record.getMirrors(), record.isPreview());
+                }
+            }
+        }
+        // Partial downloads from before the store existed, or whose entry was lost
+        for (DownloadJournal journal : DownloadJournal.findAll(Path.of("."))) {
+            if (journal.getUrl() != null && !activeDownloads.containsKey(journal.getUrl())) {
+                startDownload(journal.getUrl(), journal.getTotalSize());
+            }
+        }
     }
 
     private void startDownload(String urlString, long fileSize) {
-        DownloadItemPanel itemPanel = new DownloadItemPanel(urlString);
-        downloadListPanel.add(itemPanel);
-        downloadListPanel.add(Box.createRigidArea(new Dimension(0, 5))); // Spasi antar item
-        downloadListPanel.revalidate();
-        downloadListPanel.repaint();
+        startDownload(urlString, fileSize, null, List.of(), false);
+    }
 
-        Downloader downloader = new Downloader(urlString, itemPanel.getProgressBar(), itemPanel.getStatusLabel(), fileSize);
-        activeDownloads.put(urlString, downloader);
+    private void startDownload(String urlString, long fileSize, String expectedChecksum, List<String> mirrors,
+                               boolean preview) {
+        Downloader downloader = prepareDownload(urlString, fileSize, expectedChecksum, mirrors, preview);
+        if (preview) startPreview(downloader);
+        // Runs on a virtual thread once the scheduler has a free slot
+        scheduler.submit(urlString, downloader);
+    }
 
-        downloader.addPropertyChangeListener(evt -> {
-            if ("state".equals(evt.getPropertyName()) && SwingWorker.StateValue.DONE.equals(evt.getNewValue())) {
-                activeDownloads.remove(urlString);
+    /**
+     * Downloads in stream-friendly mode and opens the file in the browser once
+     * enough of its start is in to begin playing.
+     */
+    private void startPreview(Downloader downloader) {
+        String streamUrl;
+        try {
+            streamUrl = StreamServer.publish(downloader);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(frame, "Preview tidak tersedia: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        downloader.setStreaming(true);
+        downloader.addListener(new DownloadListener() {
+            private boolean opened = false;
+
+            @Override
+            public void readablePrefixChanged(Downloader d, long bytes) {
+                if (opened || (bytes < PREVIEW_START_BYTES && bytes < d.getDataSize())) return;
+                opened = true;
+                SwingUtilities.invokeLater(() -> openPreview(streamUrl));
             }
         });
-        downloader.execute();
+    }
+
+    private void openPreview(String streamUrl) {
+        try {
+            if (Desktop.isDesktopSupported() && Desktop.getDesktop().isSupported(Desktop.Action.BROWSE)) {
+                Desktop.getDesktop().browse(URI.create(streamUrl));
+                return;
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            // Fall through and show the address instead
+        }
+        JTextField urlField = new JTextField(streamUrl);
+        urlField.setEditable(false);
+        JOptionPane.showMessageDialog(frame, new Object[]{"Open this address in a media player:", urlField},
+                "Preview", JOptionPane.INFORMATION_MESSAGE);
+    }
+
+    /** Adds a row for every harvested link not already downloading and queues them all at once. */
+    private void startDownloads(List<LinkHarvester.Link> links) {
+        Map<String, Downloader> batch = new LinkedHashMap<>();
+        for (LinkHarvester.Link link : links) {
+            if (activeDownloads.containsKey(link.getUrl()) || batch.containsKey(link.getUrl())) continue;
+            batch.put(link.getUrl(), prepareDownload(link.getUrl(), link.getSize(), null, List.of(), false));
+        }
+        if (!batch.isEmpty()) {
+            scheduler.submitAll(batch, DownloadScheduler.PRIORITY_NORMAL);
+        }
+    }
+
+    private Downloader prepareDownload(String urlString, long fileSize, String expectedChecksum, List<String> mirrors,
+                                       boolean preview) {
+        DownloadItem item = downloadListModel.add(urlString);
+
+        Downloader downloader = new Downloader(urlString, fileSize);
+        mirrors.forEach(downloader::addMirror);
+        downloader.setDuplicatePolicy(DUPLICATE_POLICY);
+        downloader.setExpectedChecksum(expectedChecksum);
+        downloader.addListener(item);
+        if (store != null) {
+            DownloadRecord record = store.get(urlString);
+            if (record == null || record.isFinished()) {
+                record = new DownloadRecord(urlString, fileSize, expectedChecksum, mirrors, preview);
+                store.put(record);
+            }
+            downloader.addListener(store.tracker(record));
+        }
+        downloader.addListener(new DownloadListener() {
+            @Override
+            public void completed(Downloader d) { forget(urlString); }
+
+            @Override
+            public void failed(Downloader d, Throwable error) { forget(urlString); }
+
+            @Override
+            public void cancelled(Downloader d) { forget(urlString); }
+        });
+        activeDownloads.put(urlString, downloader);
+        return downloader;
+    }
+
+    private void forget(String urlString) {
+        SwingUtilities.invokeLater(() -> activeDownloads.remove(urlString));
     }
 
     public static void main(String[] args) {
@@ -163,32 +328,39 @@ public class DownloadManagerGUI {
     }
 }
 
-class DownloadItemPanel extends JPanel {
+/**
+ * Draws one {@link DownloadItem}. A single instance is reused as the list's
+ * cell renderer for every visible row.
+ */
+class DownloadItemPanel extends JPanel implements ListCellRenderer<DownloadItem> {
+    private JLabel fileNameLabel;
     private JProgressBar progressBar;
     private JLabel statusLabel;
+    // Row being drawn and how long filling it in took, so its paint can be charged to that download
+    private DownloadItem current;
+    private long configureNanos;
 
     private static final Color APPLE_GREEN = Color.decode("#60CD38");
     private static final Color LIGHT_GRAY = Color.decode("#F2F2F2");
     private static final Color QUILL_GREY = Color.decode("#A8A8A8");
     private static final Color CHARCOAL = Color.decode("#333333");
+    private static final Color SELECTED = Color.decode("#EAF4FE");
 
-    public DownloadItemPanel(String urlString) {
+    public DownloadItemPanel() {
         setLayout(new GridBagLayout());
         setBorder(BorderFactory.createCompoundBorder(
-                BorderFactory.createLineBorder(Color.decode("#DDDDDD"), 1),
-                new EmptyBorder(10, 15, 10, 15)));
+                BorderFactory.createMatteBorder(0, 0, 5, 0, LIGHT_GRAY), // Spasi antar item
+                BorderFactory.createCompoundBorder(
+                        BorderFactory.createLineBorder(Color.decode("#DDDDDD"), 1),
+                        new EmptyBorder(10, 15, 10, 15))));
         setBackground(Color.WHITE);
-        setMaximumSize(new Dimension(Integer.MAX_VALUE, 100));
-        setAlignmentX(Component.LEFT_ALIGNMENT);
 
         GridBagConstraints gbc = new GridBagConstraints();
         gbc.insets = new Insets(3, 5, 3, 5);
         gbc.fill = GridBagConstraints.HORIZONTAL;
         gbc.anchor = GridBagConstraints.WEST;
 
-        String fileName = urlString.substring(urlString.lastIndexOf('/') + 1);
-        if (fileName.isEmpty() || fileName.contains("?")) fileName = "downloaded_file";
-        JLabel fileNameLabel = new JLabel(fileName);
+        fileNameLabel = new JLabel("downloaded_file");
         fileNameLabel.setFont(new Font("Arial", Font.BOLD, 14));
         fileNameLabel.setForeground(CHARCOAL);
         gbc.gridx = 0;
@@ -205,12 +377,69 @@ class DownloadItemPanel extends JPanel {
         gbc.gridy = 1;
         add(progressBar, gbc);
 
-        statusLabel = new JLabel("Connecting...");
+        statusLabel = new JLabel("Waiting...");
         statusLabel.setFont(new Font("Arial", Font.PLAIN, 12));
         statusLabel.setForeground(QUILL_GREY.darker());
         gbc.gridy = 2;
         add(statusLabel, gbc);
     }
-    public JProgressBar getProgressBar() { return progressBar; }
-    public JLabel getStatusLabel() { return statusLabel; }
+
+    @Override
+    public Component getListCellRendererComponent(JList<? extends DownloadItem> list, DownloadItem item,
+                                                  int index, boolean isSelected, boolean cellHasFocus) {
+        long start = System.nanoTime();
+        fileNameLabel.setText(item.getFileName());
+        setBackground(isSelected ? SELECTED : Color.WHITE);
+
+        long done = item.getBytesDone();
+        long total = item.getTotalBytes();
+        String status = item.getStatus();
+        if (item.isCompleted()) {
+            progressBar.setValue(100);
+            progressBar.setString(null);
+        } else if (total > 0) {
+            progressBar.setValue((int) ((done * 100) / total));
+            progressBar.setString(null);
+        } else {
+            // A renderer is never animated, so unknown sizes show the byte count instead
+            progressBar.setValue(0);
+            progressBar.setString(done > 0 ? formatBytes(done) : "");
+            if (!item.isFinished() && done > 0) {
+                status = "Downloaded: " + formatBytes(done);
+            }
+        }
+        double speed = item.getSpeed();
+        if (speed > 0) {
+            long eta = item.getEtaSeconds();
+            status += " - " + formatBytes((long) speed) + "/s" + (eta >= 0 ? ", " + formatDuration(eta) + " left" : "");
+        }
+        statusLabel.setText(status);
+        current = item;
+        configureNanos = System.nanoTime() - start;
+        return this;
+    }
+
+    @Override
+    public void paint(Graphics g) {
+        long start = System.nanoTime();
+        super.paint(g);
+        if (current != null) {
+            current.getUiCost().record(configureNanos + System.nanoTime() - start);
+            current = null;
+        }
+    }
+
+    private String formatDuration(long seconds) {
+        if (seconds >= 3600) {
+            return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+        }
+        return String.format("%d:%02d", seconds / 60, seconds % 60);
+    }
+
+    private String formatBytes(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        int exp = (int) (Math.log(bytes) / Math.log(1024));
+        char pre = "KMGTPE".charAt(exp - 1);
+        return String.format("%.1f %cB", bytes / Math.pow(1024, exp), pre);
+    }
 }
@@ -0,0 +1,154 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live numbers of one download: throughput, ETA, time to first byte, request
+ * latency, retries and bytes written. The transfer threads only bump
+ * counters; {@link MetricsRegistry} turns them into rates once a second.
+ */
+public class DownloadMetrics implements DownloadMetricsMXBean {
+
+    // Weight of the newest one-second sample in the moving average, roughly a 5 s window
+    private static final double SMOOTHING = 0.2;
+
+    private final String url;
+    private final String fileName;
+    private final LongAdder bytesWritten = new LongAdder();
+    // Bytes off the network; fewer than written when the server compressed
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder responseNanos = new LongAdder();
+    private final AtomicInteger retries = new AtomicInteger();
+    private volatile long bytesDone = 0;
+    private volatile long totalBytes = -1;
+    private volatile long startNanos = 0;
+    private volatile long firstByteNanos = 0;
+    private volatile long endNanos = 0;
+    private volatile long bytesSaved = 0;
+    // Updated by the registry's ticker only
+    private volatile double speed = 0;
+    private volatile double averageSpeed = -1;
+    private long bytesAtLastSample = 0;
+
+    public DownloadMetrics(String url, String fileName) {
+        this.url = url;
+        this.fileName = fileName;
+    }
+
+    void started() {
+        startNanos = System.nanoTime();
+        firstByteNanos = 0;
+        endNanos = 0;
+    }
+
+    void finished() {
+        endNanos = System.nanoTime();
+        speed = 0;
+    }
+
+    /** Call when a request goes out; pass the result to {@link #responseReceived}. */
+    public long requestSent() {
+        return System.nanoTime();
+    }
+
+    public void responseReceived(long sentNanos) {
+        requests.increment();
+        responseNanos.add(System.nanoTime() - sentNanos);
+    }
+
+    public void written(int bytes) {
+        if (firstByteNanos == 0) firstByteNanos = System.nanoTime();
+        bytesWritten.add(bytes);
+    }
+
+    public void received(long bytes) {
+        bytesReceived.add(bytes);
+    }
+
+    public void progress(long bytesDone, long totalBytes) {
+        this.bytesDone = bytesDone;
+        this.totalBytes = totalBytes;
+    }
+
+    /** The server said our copy of {@code size} bytes is current, so none were transferred. */
+    public void notModified(long size) {
+        bytesSaved = Math.max(0, size);
+    }
+
+    public void retried() {
+        retries.incrementAndGet();
+    }
+
+    /** Turns the bytes written since the last call into rates; returns that byte count. */
+    long sample(long intervalNanos) {
+        long total = bytesWritten.sum();
+        long delta = total - bytesAtLastSample;
+        bytesAtLastSample = total;
+        double rate = delta * 1e9 / Math.max(1, intervalNanos);
+        speed = rate;
+        // Seconds spent connecting would drag the average down for a long time; start it at the first data
+        if (averageSpeed >= 0) averageSpeed += SMOOTHING * (rate - averageSpeed);
+        else if (delta > 0) averageSpeed = rate;
+        return delta;
+    }
+
+    @Override
+    public String getUrl() { return url; }
+
+    @Override
+    public String getFileName() { return fileName; }
+
+    @Override
+    public long getBytesDone() { return bytesDone; }
+
+    @Override
+    public long getTotalBytes() { return totalBytes; }
+
+    @Override
+    public long getBytesWritten() { return bytesWritten.sum(); }
+
+    @Override
+    public long getBytesReceived() { return bytesReceived.sum(); }
+
+    @Override
+    public long getBytesSaved() { return bytesSaved; }
+
+    @Override
+    public double getSpeed() { return speed; }
+
+    @Override
+    public double getAverageSpeed() { return Math.max(0, averageSpeed); }
+
+    @Override
+    public long getEtaSeconds() {
+        double rate = getAverageSpeed();
+        if (totalBytes <= 0 || rate < 1 || endNanos != 0) return -1;
+        return (long) Math.ceil(Math.max(0, totalBytes - bytesDone) / rate);
+    }
+
+    @Override
+    public long getTimeToFirstByteMillis() {
+        long first = firstByteNanos;
+        return first != 0 ? TimeUnit.NANOSECONDS.toMillis(first - startNanos) : -1;
+    }
+
+    @Override
+    public double getResponseLatencyMillis() {
+        long count = requests.sum();
+        return count > 0 ? responseNanos.sum() / 1e6 / count : -1;
+    }
+
+    @Override
+    public long getRequests() { return requests.sum(); }
+
+    @Override
+    public int getRetries() { return retries.get(); }
+
+    @Override
+    public long getElapsedMillis() {
+        if (startNanos == 0) return 0;
+        long end = endNanos != 0 ? endNanos : System.nanoTime();
+        return TimeUnit.NANOSECONDS.toMillis(end - startNanos);
+    }
+}
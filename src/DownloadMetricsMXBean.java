@@ -0,0 +1,44 @@
+/**
+ * What JMX shows for one running download. Rates are bytes per second, times
+ * are milliseconds or seconds as named; -1 means not known (yet).
+ */
+public interface DownloadMetricsMXBean {
+
+    String getUrl();
+
+    String getFileName();
+
+    long getBytesDone();
+
+    long getTotalBytes();
+
+    long getBytesWritten();
+
+    /** Bytes received over the network; less than written if the server compressed the transfer. */
+    long getBytesReceived();
+
+    /** Size of the local copy when sync mode found it current, otherwise 0. */
+    long getBytesSaved();
+
+    /** Rate over the last second. */
+    double getSpeed();
+
+    /** Moving average of the rate, smoothing out bursts. */
+    double getAverageSpeed();
+
+    long getEtaSeconds();
+
+    long getTimeToFirstByteMillis();
+
+    /**
+     * Mean time from sending a request to its response headers: connecting,
+     * TLS and the server's own think time together.
+     */
+    double getResponseLatencyMillis();
+
+    long getRequests();
+
+    int getRetries();
+
+    long getElapsedMillis();
+}
@@ -0,0 +1,88 @@
+import java.util.List;
+
+/**
+ * What the {@link DownloadStore} remembers about one URL: where it is in the
+ * queue and, once it ran, how it went.
+ */
+public class DownloadRecord {
+
+    public enum Status { QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED }
+
+    private final String url;
+    private volatile Status status;
+    private volatile long totalBytes;
+    private volatile long bytesDone;
+    private final long addedAt;
+    private long startedAt;
+    private long finishedAt;
+    private String message;
+    // How the task was set up, so a restored download runs the same way
+    private final String expectedChecksum;
+    private final List<String> mirrors;
+    private final boolean preview;
+
+    public DownloadRecord(String url, long totalBytes) {
+        this(url, totalBytes, null, List.of(), false);
+    }
+
+    public DownloadRecord(String url, long totalBytes, String expectedChecksum, List<String> mirrors, boolean preview) {
+        this(url, Status.QUEUED, totalBytes, 0, System.currentTimeMillis(), 0, 0, null,
+                expectedChecksum, mirrors, preview);
+    }
+
+    DownloadRecord(String url, Status status, long totalBytes, long bytesDone,
+                   long addedAt, long startedAt, long finishedAt, String message,
+                   String expectedChecksum, List<String> mirrors, boolean preview) {
+        this.url = url;
+        this.status = status;
+        this.totalBytes = totalBytes;
+        this.bytesDone = bytesDone;
+        this.addedAt = addedAt;
+        this.startedAt = startedAt;
+        this.finishedAt = finishedAt;
+        this.message = message;
+        this.expectedChecksum = expectedChecksum;
+        this.mirrors = List.copyOf(mirrors);
+        this.preview = preview;
+    }
+
+    public String getUrl() { return url; }
+    public Status getStatus() { return status; }
+    public long getTotalBytes() { return totalBytes; }
+    public long getBytesDone() { return bytesDone; }
+    public long getAddedAt() { return addedAt; }
+    public long getStartedAt() { return startedAt; }
+    public long getFinishedAt() { return finishedAt; }
+    public String getMessage() { return message; }
+    /** SHA-256 the file must have, or null. */
+    public String getExpectedChecksum() { return expectedChecksum; }
+    public List<String> getMirrors() { return mirrors; }
+    /** True if the task was started with "Play while downloading". */
+    public boolean isPreview() { return preview; }
+
+    public boolean isFinished() {
+        return status == Status.COMPLETED || status == Status.FAILED || status == Status.CANCELLED;
+    }
+
+    /** Average speed of a finished transfer in bytes per second, or 0 if unknown. */
+    public long getAverageSpeed() {
+        long elapsed = finishedAt - startedAt;
+        return startedAt > 0 && elapsed > 0 ? bytesDone * 1000 / elapsed : 0;
+    }
+
+    void started() {
+        status = Status.RUNNING;
+        startedAt = System.currentTimeMillis();
+    }
+
+    void progress(long bytesDone, long totalBytes) {
+        this.bytesDone = bytesDone;
+        if (totalBytes > 0) this.totalBytes = totalBytes;
+    }
+
+    void finished(Status status, String message) {
+        this.status = status;
+        this.message = message;
+        this.finishedAt = System.currentTimeMillis();
+    }
+}
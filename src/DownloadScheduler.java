@@ -0,0 +1,161 @@
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Queues downloads and starts each one on its own virtual thread, limiting how
+ * many run at once in total and per host. Higher priority tasks start first,
+ * tasks of equal priority start in the order they were submitted.
+ */
+public class DownloadScheduler {
+
+    public static final int PRIORITY_LOW = -1;
+    public static final int PRIORITY_NORMAL = 0;
+    public static final int PRIORITY_HIGH = 1;
+
+    public static final int DEFAULT_MAX_CONCURRENT = 4;
+    public static final int DEFAULT_MAX_PER_HOST = 2;
+
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+    private final Map<String, Integer> runningPerHost = new HashMap<>();
+    private final ExecutorService executor;
+    private long nextSequence = 0;
+    private int running = 0;
+    private int maxConcurrent;
+    private int maxPerHost;
+    private boolean paused = false;
+
+    public DownloadScheduler() {
+        this(DEFAULT_MAX_CONCURRENT, DEFAULT_MAX_PER_HOST);
+    }
+
+    public DownloadScheduler(int maxConcurrent, int maxPerHost) {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.maxPerHost = Math.max(1, maxPerHost);
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("download-", 1).factory());
+    }
+
+    public void submit(String urlString, Runnable task) {
+        submit(urlString, task, PRIORITY_NORMAL);
+    }
+
+    public synchronized void submit(String urlString, Runnable task, int priority) {
+        queue.add(new Entry(task, hostOf(urlString), priority, nextSequence++));
+        dispatch();
+    }
+
+    /**
+     * Queues many tasks under one lock and dispatches once, so a batch of
+     * harvested links is not started piecemeal as it is being added.
+     */
+    public synchronized void submitAll(Map<String, ? extends Runnable> tasksByUrl, int priority) {
+        tasksByUrl.forEach((urlString, task) ->
+                queue.add(new Entry(task, hostOf(urlString), priority, nextSequence++)));
+        dispatch();
+    }
+
+    /** Drops a task that has not started yet. Returns false if it is already running or unknown. */
+    public synchronized boolean remove(Runnable task) {
+        Iterator<Entry> it = queue.iterator();
+        while (it.hasNext()) {
+            if (it.next().task == task) {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Stops starting queued tasks. Transfers already running are not interrupted. */
+    public synchronized void pause() {
+        paused = true;
+    }
+
+    public synchronized void resume() {
+        paused = false;
+        dispatch();
+    }
+
+    public synchronized boolean isPaused() { return paused; }
+    public synchronized int getQueuedCount() { return queue.size(); }
+    public synchronized int getRunningCount() { return running; }
+
+    public synchronized void setMaxConcurrent(int maxConcurrent) {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        dispatch();
+    }
+
+    public synchronized void setMaxPerHost(int maxPerHost) {
+        this.maxPerHost = Math.max(1, maxPerHost);
+        dispatch();
+    }
+
+    private void dispatch() {
+        if (paused || running >= maxConcurrent || queue.isEmpty()) return;
+
+        // Walk the queue in priority order and skip entries whose host is saturated
+        List<Entry> skipped = new ArrayList<>();
+        Entry entry;
+        while (running < maxConcurrent && (entry = queue.poll()) != null) {
+            if (runningPerHost.getOrDefault(entry.host, 0) >= maxPerHost) {
+                skipped.add(entry);
+                continue;
+            }
+            start(entry);
+        }
+        queue.addAll(skipped);
+    }
+
+    private void start(Entry entry) {
+        running++;
+        runningPerHost.merge(entry.host, 1, Integer::sum);
+        executor.execute(() -> {
+            try {
+                entry.task.run();
+            } finally {
+                finished(entry);
+            }
+        });
+    }
+
+    private synchronized void finished(Entry entry) {
+        running--;
+        runningPerHost.computeIfPresent(entry.host, (host, count) -> count > 1 ? count - 1 : null);
+        dispatch();
+    }
+
+    static String hostOf(String urlString) {
+        try {
+            String host = URI.create(urlString).getHost();
+            return host != null ? host.toLowerCase() : "";
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+
+    private static class Entry implements Comparable<Entry> {
+        final Runnable task;
+        final String host;
+        final int priority;
+        final long sequence;
+
+        Entry(Runnable task, String host, int priority, long sequence) {
+            this.task = task;
+            this.host = host;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            if (priority != other.priority) return Integer.compare(other.priority, priority);
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
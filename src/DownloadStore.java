@@ -0,0 +1,366 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only log of the download queue and history. Every change is one
+ * line appended to the file; loading replays the lines in a single streaming
+ * pass. When most lines are superseded the log is rewritten in the background
+ * with one line per URL. Records are indexed by URL and by status.
+ *
+ * <p>Line format, tab separated: {@code P url status total done added started finished message
+ * checksum mirrors preview} to store a record, mirrors separated by newlines; {@code D url} to delete it.
+ */
+public class DownloadStore implements Closeable {
+
+    public static final String DEFAULT_FILE = "twiby-downloads.log";
+
+    // Only compact once there is a meaningful amount of garbage to drop
+    private static final int MIN_LINES_BEFORE_COMPACTION = 1000;
+    private static final int TAIL_CHUNK = 8 * 1024;
+
+    private final Path path;
+    private final Map<String, DownloadRecord> byUrl = new LinkedHashMap<>();
+    private final Map<DownloadRecord.Status, Set<String>> byStatus = new EnumMap<>(DownloadRecord.Status.class);
+    // The bucket each URL is filed under; callers change records in place, so the record can't tell
+    private final Map<String, DownloadRecord.Status> indexedStatus = new HashMap<>();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "download-store-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private BufferedWriter writer;
+    private long linesInFile = 0;
+    private boolean compactionQueued = false;
+    // Lines appended while a compaction writes its copy; null when none runs
+    private List<String> appendedDuringCompaction;
+
+    private DownloadStore(Path path) {
+        this.path = path;
+        for (DownloadRecord.Status status : DownloadRecord.Status.values()) {
+            byStatus.put(status, new LinkedHashSet<>());
+        }
+    }
+
+    public static DownloadStore open(Path path) throws IOException {
+        DownloadStore store = new DownloadStore(path);
+        store.dropTornTail();
+        store.load();
+        store.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        return store;
+    }
+
+    /**
+     * Cuts off a last line that a crash left without its newline. Appending
+     * after it would glue the next record onto the torn one and lose both.
+     */
+    private void dropTornTail() throws IOException {
+        if (!Files.exists(path)) return;
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = file.size();
+            ByteBuffer chunk = ByteBuffer.allocate(TAIL_CHUNK);
+            long end = size;
+            while (end > 0) {
+                int length = (int) Math.min(TAIL_CHUNK, end);
+                chunk.clear().limit(length);
+                while (chunk.hasRemaining()) {
+                    if (file.read(chunk, end - length + chunk.position()) < 0) throw new IOException(path + " shrank while opening");
+                }
+                for (int i = length - 1; i >= 0; i--) {
+                    if (chunk.get(i) == '\n') {
+                        end -= length - i - 1;
+                        if (end < size) truncate(file, end, size);
+                        return;
+                    }
+                }
+                end -= length;
+            }
+            if (size > 0) truncate(file, 0, size); // Not even the first line was finished
+        }
+    }
+
+    private void truncate(FileChannel file, long length, long size) throws IOException {
+        System.err.println("Dropping torn last line of " + path + " (" + (size - length) + " bytes)");
+        file.truncate(length);
+        file.force(false);
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(path)) return;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                linesInFile++;
+                try {
+                    apply(line);
+                } catch (RuntimeException e) {
+                    // Damaged or written by a newer version; the other lines still count
+                    System.err.println("Skipping bad line " + linesInFile + " in " + path + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void apply(String line) {
+        String[] fields = line.split("\t", -1);
+        String url = unescape(fields[1]);
+        if (fields[0].equals("D")) {
+            index(url, null);
+        } else if (fields[0].equals("P")) {
+            index(url, new DownloadRecord(url,
+                    DownloadRecord.Status.valueOf(fields[2]),
+                    Long.parseLong(fields[3]),
+                    Long.parseLong(fields[4]),
+                    Long.parseLong(fields[5]),
+                    Long.parseLong(fields[6]),
+                    Long.parseLong(fields[7]),
+                    fields[8].isEmpty() ? null : unescape(fields[8]),
+                    // Lines written before the task settings were stored end here
+                    fields.length > 9 && !fields[9].isEmpty() ? fields[9] : null,
+                    fields.length > 10 && !fields[10].isEmpty() ? List.of(unescape(fields[10]).split("\n")) : List.of(),
+                    fields.length > 11 && fields[11].equals("1")));
+        } else {
+            throw new IllegalArgumentException("unknown record type " + fields[0]);
+        }
+    }
+
+    private void index(String url, DownloadRecord record) {
+        DownloadRecord.Status previous;
+        if (record != null) {
+            byUrl.put(url, record);
+            previous = indexedStatus.put(url, record.getStatus());
+        } else {
+            byUrl.remove(url);
+            previous = indexedStatus.remove(url);
+        }
+        if (previous != null) {
+            byStatus.get(previous).remove(url);
+        }
+        if (record != null) {
+            byStatus.get(record.getStatus()).add(url);
+        }
+    }
+
+    /** Stores the current state of {@code record}, replacing what was known about its URL. */
+    public synchronized void put(DownloadRecord record) {
+        // Re-insert so the status index follows the record's latest status
+        index(record.getUrl(), record);
+        append(format(record));
+    }
+
+    public synchronized void remove(String url) {
+        if (byUrl.containsKey(url)) {
+            index(url, null);
+            append("D\t" + escape(url));
+        }
+    }
+
+    public synchronized DownloadRecord get(String url) {
+        return byUrl.get(url);
+    }
+
+    /** All records in the order their URLs were first added. */
+    public synchronized List<DownloadRecord> all() {
+        return new ArrayList<>(byUrl.values());
+    }
+
+    public synchronized List<DownloadRecord> withStatus(DownloadRecord.Status status) {
+        List<DownloadRecord> records = new ArrayList<>();
+        for (String url : byStatus.get(status)) {
+            records.add(byUrl.get(url));
+        }
+        return records;
+    }
+
+    /** Listener that keeps {@code record} up to date as its download runs. */
+    public DownloadListener tracker(DownloadRecord record) {
+        return new DownloadListener() {
+            @Override
+            public void statusChanged(Downloader downloader, String status) {
+                if (record.getStatus() == DownloadRecord.Status.QUEUED) {
+                    record.started();
+                    put(record);
+                }
+            }
+
+            @Override
+            public void progressChanged(Downloader downloader, long bytesDone, long totalBytes) {
+                // Kept in memory only; written with the final state
+                record.progress(bytesDone, totalBytes);
+            }
+
+            @Override
+            public void completed(Downloader downloader) {
+                record.finished(DownloadRecord.Status.COMPLETED, null);
+                put(record);
+            }
+
+            @Override
+            public void failed(Downloader downloader, Throwable error) {
+                record.finished(DownloadRecord.Status.FAILED, error.getMessage());
+                put(record);
+            }
+
+            @Override
+            public void cancelled(Downloader downloader) {
+                record.finished(DownloadRecord.Status.CANCELLED, null);
+                put(record);
+            }
+        };
+    }
+
+    private void append(String line) {
+        try {
+            writer.write(line);
+            writer.newLine();
+            writer.flush();
+            linesInFile++;
+            if (appendedDuringCompaction != null) appendedDuringCompaction.add(line);
+        } catch (IOException e) {
+            System.err.println("Could not write to " + path + ": " + e.getMessage());
+            return;
+        }
+        if (!compactionQueued && linesInFile > MIN_LINES_BEFORE_COMPACTION && linesInFile > 2L * byUrl.size()) {
+            compactionQueued = true;
+            compactor.execute(this::compact);
+        }
+    }
+
+    /**
+     * Rewrites the log with one line per live record and swaps it in
+     * atomically. The records are copied under the lock but written without
+     * it, so downloads can keep storing their progress meanwhile; what they
+     * append in that time is carried over when the files are swapped.
+     */
+    private void compact() {
+        Path tmp = path.resolveSibling(path.getFileName() + ".compact");
+        List<String> lines = new ArrayList<>();
+        synchronized (this) {
+            compactionQueued = false;
+            for (DownloadRecord record : byUrl.values()) {
+                lines.add(format(record));
+            }
+            appendedDuringCompaction = new ArrayList<>();
+        }
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (String line : lines) {
+                out.write(line);
+                out.newLine();
+            }
+        } catch (IOException e) {
+            System.err.println("Compaction of " + path + " failed: " + e.getMessage());
+            synchronized (this) {
+                appendedDuringCompaction = null;
+            }
+            return;
+        }
+        synchronized (this) {
+            BufferedWriter next = null;
+            BufferedWriter retired = null;
+            try {
+                // Opened before the swap, so it follows the file to its new name
+                next = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+                for (String line : appendedDuringCompaction) {
+                    next.write(line);
+                    next.newLine();
+                }
+                next.flush();
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                retired = writer;
+                writer = next;
+                next = null;
+                linesInFile = lines.size() + appendedDuringCompaction.size();
+            } catch (IOException e) {
+                // The old log is untouched and stays in use
+                System.err.println("Compaction of " + path + " failed: " + e.getMessage());
+            } finally {
+                appendedDuringCompaction = null;
+                closeQuietly(next);
+                closeQuietly(retired);
+                if (retired == null) {
+                    try {
+                        Files.deleteIfExists(tmp);
+                    } catch (IOException ignored) {
+                        // Overwritten by the next compaction
+                    }
+                }
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Everything it held was flushed already
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        compactor.shutdown();
+        try {
+            // A compaction in progress swaps the writer, let it finish first
+            compactor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            writer.close();
+        }
+    }
+
+    private static String format(DownloadRecord record) {
+        return "P\t" + escape(record.getUrl())
+                + '\t' + record.getStatus()
+                + '\t' + record.getTotalBytes()
+                + '\t' + record.getBytesDone()
+                + '\t' + record.getAddedAt()
+                + '\t' + record.getStartedAt()
+                + '\t' + record.getFinishedAt()
+                + '\t' + (record.getMessage() != null ? escape(record.getMessage()) : "")
+                + '\t' + (record.getExpectedChecksum() != null ? record.getExpectedChecksum() : "")
+                + '\t' + escape(String.join("\n", record.getMirrors()))
+                + '\t' + (record.isPreview() ? "1" : "0");
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) return value;
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
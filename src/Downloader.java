@@ -1,140 +1,1134 @@
-import javax.swing.*;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
 
-public class Downloader extends SwingWorker<Void, Object> {
+/**
+ * Transfer core for one URL. It knows nothing about Swing: progress and state
+ * changes are reported to {@link DownloadListener}s on the downloading thread.
+ */
+public class Downloader implements Runnable {
+
+    /** What to do when the index shows we already have this payload under another name. */
+    public enum DuplicatePolicy { DOWNLOAD, SKIP, HARD_LINK }
+
+    public static final int DEFAULT_SEGMENTS = 4;
+    // Smallest range worth opening its own connection for
+    private static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+    // Stream-friendly mode: the first range is this small so a player gets going quickly...
+    private static final long STREAM_HEAD_SIZE = 512 * 1024;
+    // ...and the rest comes in about this many pieces, handed out in file order
+    private static final int STREAM_PIECES = 256;
+    private static final int HTTP_PARTIAL_CONTENT = 206;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final int HTTP_SERVICE_UNAVAILABLE = 503;
+    // Staging array between the response stream and the direct buffers
+    private static final int SCRATCH_SIZE = 64 * 1024;
+    private static final long JOURNAL_SAVE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
 
     private final String urlString;
-    private final JProgressBar progressBar;
-    private final JLabel statusLabel;
     private final long knownFileSize;
+    private final int segmentCount;
+    private int maxConnections = SegmentPlanner.DEFAULT_MAX_CONNECTIONS;
+    private final List<DownloadListener> listeners = new CopyOnWriteArrayList<>();
+    private BufferPool bufferPool = BufferPool.shared();
+    private final BandwidthLimits bandwidthLimits = BandwidthLimits.shared();
+    private final RateLimiter rateLimiter = new RateLimiter(RateLimiter.UNLIMITED);
+    private final String host;
+    private volatile boolean cancelled = false;
+    private String hashAlgorithm = null;
+    private String expectedChecksum = null;
+    private DuplicatePolicy duplicatePolicy = DuplicatePolicy.DOWNLOAD;
+    // Hasher of the current run, fed from the write loops; null when hashing is off
+    private ContentHasher hasher;
+    private volatile String checksum;
+    private Path outputDirectory = Path.of("");
+    private final List<String> mirrorUrls = new ArrayList<>();
+    private RetryPolicy retryPolicy = RetryPolicy.defaults();
+    private final AtomicInteger retryCount = new AtomicInteger();
+    // Reset whenever data arrives, so only retries that got nowhere count against the limit
+    private final AtomicInteger failuresInARow = new AtomicInteger();
+    private volatile String lastRetryCause;
+    // Bytes of a single-stream download already on disk, so a retry can continue after them
+    private long streamOffset = 0;
+    // Furthest a single-stream attempt got; starting over only counts as progress past it
+    private long streamFurthest = 0;
+    private final DownloadMetrics metrics;
+    // Claimed on the first attempt of a run and kept across its retries
+    private OutputFile output;
+    private volatile Path targetPath;
+    private boolean sync = false;
+    private volatile boolean notModified = false;
+    private boolean streaming = false;
+    // What a reader of the unfinished file may see: see availableFrom()
+    private volatile Path dataPath;
+    private volatile long dataSize = -1;
+    private volatile boolean dataComplete = false;
+    private volatile DownloadJournal activeJournal;
+    private volatile SegmentPlanner activePlanner;
+    private volatile long streamedBytes = 0;
+    private volatile long readablePrefix = 0;
+    private volatile boolean finished = false;
+
+    public Downloader(String urlString, long knownFileSize) {
+        this(urlString, knownFileSize, DEFAULT_SEGMENTS);
+    }
 
-    public Downloader(String urlString, JProgressBar progressBar, JLabel statusLabel, long knownFileSize) {
+    public Downloader(String urlString, long knownFileSize, int segmentCount) {
         this.urlString = urlString;
-        this.progressBar = progressBar;
-        this.statusLabel = statusLabel;
         this.knownFileSize = knownFileSize;
+        this.segmentCount = Math.max(1, segmentCount);
+        this.host = DownloadScheduler.hostOf(urlString);
+        this.metrics = new DownloadMetrics(urlString, fileNameFor(urlString));
     }
 
-    @Override
-    protected Void doInBackground() throws Exception {
-        InputStream inputStream = null;
-        FileOutputStream fileOutputStream = null;
-        int lastPublishedProgress = -1;
-        long totalBytesRead = 0;
+    public void addListener(DownloadListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(DownloadListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Upper bound for the connections of a segmented download. It starts with
+     * the segment count and adds connections only while that makes it faster.
+     */
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = Math.max(1, maxConnections);
+    }
+
+    /** Uses {@code pool} instead of the shared pool, e.g. to pick a different buffer size. */
+    public void setBufferPool(BufferPool pool) {
+        this.bufferPool = pool;
+    }
+
+    /** Caps this download (all of its connections together); can be changed while it runs. */
+    public void setRateLimit(long bytesPerSecond) {
+        rateLimiter.setRate(bytesPerSecond);
+    }
+
+    public long getRateLimit() {
+        return rateLimiter.getRate();
+    }
+
+    /** Hashes the file while it is written, e.g. {@link ContentHasher#SHA_256}; null turns hashing off. */
+    public void setHashAlgorithm(String algorithm) {
+        this.hashAlgorithm = algorithm;
+    }
+
+    /** Fails the download, and deletes the file, unless its SHA-256 matches {@code hex}. */
+    public void setExpectedChecksum(String hex) {
+        this.expectedChecksum = hex != null && !hex.isBlank() ? hex.trim().toLowerCase() : null;
+        if (expectedChecksum != null) hashAlgorithm = ContentHasher.SHA_256;
+    }
+
+    public void setDuplicatePolicy(DuplicatePolicy policy) {
+        this.duplicatePolicy = policy;
+        if (policy != DuplicatePolicy.DOWNLOAD && hashAlgorithm == null) hashAlgorithm = ContentHasher.SHA_256;
+    }
+
+    /**
+     * Sync mode: a file an earlier sync fetched from this URL is only
+     * downloaded again if the server says it changed, and then replaced in
+     * place instead of saved under a new name. The server's validators are kept
+     * in a {@link SyncState} sidecar next to the file.
+     */
+    public void setSync(boolean sync) {
+        this.sync = sync;
+    }
+
+    /** True if sync mode found the local copy current and transferred nothing. */
+    public boolean isNotModified() {
+        return notModified;
+    }
+
+    /**
+     * Stream-friendly mode, so media can be played while it downloads: ranges
+     * are handed out in file order starting with a small one, the index of an
+     * MP4/3GP file that keeps it at the end is fetched right after the first
+     * bytes, and listeners hear when the readable prefix grows.
+     * {@link StreamServer} serves the file to a player meanwhile.
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /** Bytes from the start of the file that are on disk without a gap. */
+    public long getReadablePrefix() {
+        return readablePrefix;
+    }
+
+    /**
+     * Bytes from {@code position} on that are on disk without a gap and can be
+     * read from {@link #getDataPath()}; 0 if that byte has not arrived yet.
+     */
+    public long availableFrom(long position) {
+        if (dataComplete) return Math.max(0, dataSize - position);
+        DownloadJournal journal = activeJournal;
+        if (journal != null) return journal.contiguousFrom(position);
+        return Math.max(0, streamedBytes - position);
+    }
+
+    /** The part file while the download runs, the finished file afterwards; null before any data. */
+    public Path getDataPath() {
+        return dataPath;
+    }
+
+    /** Size of the whole file, or -1 while it is not known. */
+    public long getDataSize() {
+        return dataSize;
+    }
+
+    /** Asks a running segmented download to fetch from {@code position} on next, e.g. where a player seeked to. */
+    public void prioritize(long position) {
+        SegmentPlanner planner = activePlanner;
+        if (planner != null) planner.prioritize(position);
+    }
+
+    /** True once the download has stopped, whether it completed, failed or was cancelled. */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /** Saves into {@code directory} instead of the working directory. */
+    public void setOutputDirectory(Path directory) {
+        this.outputDirectory = directory;
+    }
+
+    /**
+     * Adds another URL serving the same file. Mirrors whose size or ETag do not
+     * match the main URL are ignored; ranges are spread over the rest.
+     */
+    public void addMirror(String mirrorUrl) {
+        if (!mirrorUrl.equals(urlString) && !mirrorUrls.contains(mirrorUrl)) {
+            mirrorUrls.add(mirrorUrl);
+        }
+    }
+
+    public List<String> getMirrors() {
+        return List.copyOf(mirrorUrls);
+    }
+
+    public void setRetryPolicy(RetryPolicy policy) {
+        this.retryPolicy = policy;
+    }
+
+    /** Retries made so far, across all connections. */
+    public int getRetryCount() {
+        return retryCount.get();
+    }
+
+    /** Why the download last had to retry, or null if it never did. */
+    public String getLastRetryCause() {
+        return lastRetryCause;
+    }
+
+    /** Live throughput, ETA and timing of this download; also published over JMX while it runs. */
+    public DownloadMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Where the file ends up once the download finishes. That is the URL's file
+     * name unless the name was taken, then a numbered variant of it.
+     */
+    public Path getTargetPath() {
+        Path path = targetPath;
+        return path != null ? path : outputDirectory.resolve(fileNameFor(urlString));
+    }
+
+    /** Hex digest of the finished file, or null if hashing was off or the download did not finish. */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public String getUrl() {
+        return urlString;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** Asks the transfer to stop; a running download notices within one read. */
+    public void cancel() {
+        cancelled = true;
+    }
 
+    @Override
+    public void run() {
+        if (cancelled) {
+            finished = true;
+            listeners.forEach(l -> l.cancelled(this));
+            return;
+        }
+        MetricsRegistry.shared().add(metrics);
+        output = null;
+        notModified = false;
+        finished = false;
+        dataPath = null;
+        dataSize = knownFileSize;
+        dataComplete = false;
+        activeJournal = null;
+        streamedBytes = 0;
+        readablePrefix = 0;
+        Exception failure = null;
+        try {
+            while (true) {
+                try {
+                    download();
+                    break;
+                } catch (Exception e) {
+                    long delay = retryDelay(e);
+                    if (delay < 0) throw e;
+                    // The failure may have been the server changing, so ask again
+                    RemoteInfoCache.shared().invalidate(urlString);
+                    if (!backOff(delay, null)) break;
+                }
+            }
+        } catch (Exception e) {
+            failure = e;
+        }
         try {
-            URL url = new URL(urlString);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            long totalFileSize = knownFileSize;
+            releaseOutput();
+        } catch (IOException e) {
+            if (failure == null) failure = e;
+        }
+        finished = true;
+        if (cancelled) {
+            MetricsRegistry.shared().remove(metrics, DownloadRecord.Status.CANCELLED);
+            listeners.forEach(l -> l.cancelled(this));
+        } else if (failure != null) {
+            MetricsRegistry.shared().remove(metrics, DownloadRecord.Status.FAILED);
+            Exception error = failure;
+            listeners.forEach(l -> l.failed(this, error));
+        } else {
+            MetricsRegistry.shared().remove(metrics, DownloadRecord.Status.COMPLETED);
+            listeners.forEach(l -> l.completed(this));
+        }
+    }
+
+    private void fireStatus(String status) {
+        listeners.forEach(l -> l.statusChanged(this, status));
+    }
+
+    private void fireProgress(long bytesDone, long totalBytes) {
+        metrics.progress(bytesDone, totalBytes);
+        listeners.forEach(l -> l.progressChanged(this, bytesDone, totalBytes));
+    }
+
+    /**
+     * Sets the readable prefix to what is on disk now and, when streaming, tells
+     * listeners. It only shrinks when a single-stream retry has to start over.
+     */
+    private void updateReadablePrefix() {
+        long prefix = availableFrom(0);
+        if (prefix == readablePrefix) return;
+        readablePrefix = prefix;
+        if (streaming) listeners.forEach(l -> l.readablePrefixChanged(this, prefix));
+    }
+
+    /** The whole file can be read at {@code path} now. */
+    private void dataCompleted(Path path) throws IOException {
+        dataSize = Files.size(path);
+        dataPath = path;
+        dataComplete = true;
+        updateReadablePrefix();
+    }
+
+    /**
+     * Counts a failure and tells listeners about the retry. Returns how long to
+     * back off first, or -1 if the error is final or the retries are used up.
+     */
+    private long retryDelay(Throwable error) {
+        if (cancelled || !retryPolicy.isRetryable(error)) return -1;
+        int attempt = failuresInARow.incrementAndGet();
+        if (attempt > retryPolicy.getMaxRetries()) return -1;
+        retryCount.incrementAndGet();
+        metrics.retried();
+        lastRetryCause = describe(error);
+        long delay = retryPolicy.delayMillis(attempt, error);
+        listeners.forEach(l -> l.retrying(this, attempt, retryPolicy.getMaxRetries(), delay, error));
+        return delay;
+    }
+
+    private void madeProgress() {
+        if (failuresInARow.get() != 0) failuresInARow.set(0);
+    }
 
-            // If file size is still unknown, try to get it from the GET request
-            if (totalFileSize == -1) {
-                totalFileSize = connection.getContentLengthLong();
+    /** Sleeps for {@code millis}; returns false early if the download is cancelled or {@code stop} is set. */
+    private boolean backOff(long millis, AtomicBoolean stop) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        long left;
+        while ((left = deadline - System.nanoTime()) > 0) {
+            if (cancelled || (stop != null && stop.get())) return false;
+            TimeUnit.NANOSECONDS.sleep(Math.min(left, TimeUnit.MILLISECONDS.toNanos(100)));
+        }
+        return !cancelled && (stop == null || !stop.get());
+    }
+
+    static String describe(Throwable error) {
+        String message = error.getMessage();
+        return message != null ? message : error.getClass().getSimpleName();
+    }
+
+    private void download() throws Exception {
+        Path base = outputDirectory.resolve(fileNameFor(urlString));
+        fireStatus("Connecting...");
+        Path previous = null;
+        if (sync && output == null) {
+            previous = SyncState.find(base, urlString);
+            if (previous != null && isUpToDate(previous)) return;
+        }
+        RemoteFileInfo info = probe();
+        if (output == null) {
+            output = previous != null ? OutputFile.replacing(previous, urlString) : OutputFile.create(base, urlString);
+            targetPath = output.getTarget();
+        }
+        if (info != null && info.getSize() >= 0) dataSize = info.getSize();
+        dataPath = output.getPartPath();
+        String fileName = output.getTarget().toString();
+        DownloadJournal journal = DownloadJournal.load(fileName);
+        if (journal == null && duplicatePolicy != DuplicatePolicy.DOWNLOAD && reuseDuplicate(base, info)) {
+            output.discard();
+            output = null;
+            dataCompleted(targetPath);
+            return;
+        }
+        hasher = hashAlgorithm != null ? new ContentHasher(hashAlgorithm) : null;
+
+        // Small files keep to one stream: a planner, several connections and a journal would cost more
+        // than they save, and text files among them can then come compressed even from servers that do ranges
+        if (info != null && info.acceptsRanges() && info.getSize() >= MIN_SEGMENT_SIZE * 2) {
+            if (journal == null) {
+                journal = new DownloadJournal(fileName, urlString, info);
+            } else if (!journal.matches(info)) {
+                // The partial data is from an older version of the file; resuming would mix the two
+                journal.delete();
+                output.clear();
+                journal = new DownloadJournal(fileName, urlString, info);
+                fireStatus("Remote file changed since " + fileName + " was interrupted; starting over");
+            }
+            downloadSegmented(fileName, info, journal, probeMirrors(info));
+            finish(info, journal);
+            return;
+        }
+        if (journal != null) {
+            if (info == null) {
+                // Keep the partial data, the server may simply be unreachable right now
+                throw new IOException("Cannot verify remote file, keeping partial " + fileName);
             }
+            // Server no longer serves ranges, or the file is now too small to split; the partial data is useless
+            journal.delete();
+        }
+        downloadSingleStream(fileName, info);
+        finish(info, null);
+    }
+
+    /** Checks the checksum, then gives the finished file its final name and records its hash. */
+    private void finish(RemoteFileInfo info, DownloadJournal journal) throws IOException {
+        if (cancelled) return;
+        if (hasher != null && expectedChecksum != null && !expectedChecksum.equals(checksum)) {
+            output.discard();
+            if (journal != null) journal.delete();
+            output = null;
+            throw new FatalDownloadException("Checksum mismatch for " + targetPath + ": expected " + expectedChecksum + ", got " + checksum);
+        }
+        if (skipDuplicate(info, journal)) return;
+        targetPath = output.commit();
+        output = null;
+        dataCompleted(targetPath);
+        // Only now: a journal without its part file would describe data that is gone
+        if (journal != null) journal.delete();
+        if (sync) {
+            new SyncState(urlString, info != null ? info : new RemoteFileInfo(Files.size(targetPath), false, null, null))
+                    .save(targetPath);
+        }
+        index(targetPath, info);
+    }
+
+    /**
+     * Sync mode: asks the server whether {@code local}, which an earlier sync
+     * fetched, is still current. If so the download is done without
+     * transferring anything and this returns true.
+     */
+    private boolean isUpToDate(Path local) throws IOException {
+        SyncState state = SyncState.load(local);
+        if (state == null || !state.hasValidator() || !state.describes(local)) return false;
+        long sent = metrics.requestSent();
+        RemoteFileInfo current = RemoteFileInfo.probeIfChanged(urlString, state);
+        metrics.responseReceived(sent);
+        if (current != null && !state.isUnchanged(current)) {
+            // The answer doubles as the probe the download makes next
+            RemoteInfoCache.shared().put(urlString, current);
+            return false;
+        }
+        targetPath = local;
+        notModified = true;
+        dataCompleted(local);
+        metrics.notModified(state.getSize());
+        fireProgress(state.getSize(), state.getSize());
+        fireStatus("Not modified, skipped");
+        return true;
+    }
+
+    /**
+     * Closes the part file of a run that did not complete. A journal keeps it
+     * for a later resume; without one it could never be continued, so it goes.
+     */
+    private void releaseOutput() throws IOException {
+        if (output == null) return;
+        if (Files.exists(Path.of(output.getTarget() + DownloadJournal.SUFFIX))) {
+            output.close();
+        } else {
+            output.discard();
+        }
+        output = null;
+    }
+
+    /**
+     * Satisfies the download from a file we already have, found by expected
+     * checksum or by host + ETag + size. Returns false if there is none.
+     */
+    private boolean reuseDuplicate(Path target, RemoteFileInfo info) throws IOException {
+        HashIndex index = HashIndex.shared();
+        HashIndex.Entry existing = expectedChecksum != null ? index.findByHash(expectedChecksum) : null;
+        if (existing == null && info != null) {
+            existing = index.findByEtag(host, info.getEtag(), info.getSize());
+        }
+        if (existing == null) {
+            return false;
+        }
+        if (Files.exists(target) && Files.isSameFile(existing.getPath(), target)) {
+            fireStatus("Already downloaded: " + target);
+            targetPath = target;
+        } else if (duplicatePolicy == DuplicatePolicy.SKIP) {
+            fireStatus("Duplicate of " + existing.getPath() + ", skipped");
+            targetPath = existing.getPath();
+        } else if (!linkTo(existing.getPath(), output.getTarget())) {
+            return false; // Links not supported here, fetch it after all
+        } else {
+            fireStatus("Linked to identical " + existing.getPath());
+            targetPath = output.getTarget();
+        }
+        checksum = existing.getHash();
+        return true;
+    }
+
+    /**
+     * SKIP policy, for a duplicate only the hash gave away: drops the part file
+     * instead of keeping a second copy and points at the one we had. Sync mode
+     * keeps its file where it is. Returns false if nothing was skipped.
+     */
+    private boolean skipDuplicate(RemoteFileInfo info, DownloadJournal journal) throws IOException {
+        if (hasher == null || duplicatePolicy != DuplicatePolicy.SKIP || sync) return false;
+        HashIndex index = HashIndex.shared();
+        HashIndex.Entry existing = index.findByHash(checksum);
+        if (existing == null) return false; // The target is not created yet, so existing is always another file
+        output.discard();
+        output = null;
+        if (journal != null) journal.delete();
+        targetPath = existing.getPath();
+        dataCompleted(targetPath);
+        fireStatus("Duplicate of " + existing.getPath() + ", removed");
+        // So the next download of this URL is recognised by its ETag before it starts
+        index.add(checksum, Files.size(targetPath), host, info != null ? info.getEtag() : null, targetPath);
+        return true;
+    }
 
-            String fileName = urlString.substring(urlString.lastIndexOf('/') + 1);
-            if (fileName.isEmpty() || fileName.contains("?")) {
-                fileName = "downloaded_file";
+    /** Records the hash, and links over the file if we already had it. */
+    private void index(Path target, RemoteFileInfo info) throws IOException {
+        if (hasher == null) return;
+        HashIndex index = HashIndex.shared();
+        HashIndex.Entry existing = index.findByHash(checksum);
+        if (duplicatePolicy == DuplicatePolicy.HARD_LINK && existing != null
+                && !Files.isSameFile(existing.getPath(), target) && linkTo(existing.getPath(), target)) {
+            fireStatus("Linked to identical " + existing.getPath());
+        }
+        index.add(checksum, Files.size(target), host, info != null ? info.getEtag() : null, target);
+    }
+
+    /** Replaces {@code target} with a hard link to {@code existing}; false if the file system refuses. */
+    private static boolean linkTo(Path existing, Path target) throws IOException {
+        Path tmp = target.resolveSibling(target.getFileName() + ".link");
+        try {
+            Files.deleteIfExists(tmp);
+            Files.createLink(tmp, existing);
+        } catch (UnsupportedOperationException | IOException e) {
+            return false;
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return true;
+    }
+
+    private RemoteFileInfo probe() {
+        try {
+            // Usually answered from the probe the New Task dialog already made
+            return RemoteInfoCache.shared().probe(urlString);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** The main URL plus every mirror that serves the same file, probed in parallel. */
+    private List<Mirror> probeMirrors(RemoteFileInfo info) throws InterruptedException {
+        List<Mirror> mirrors = new ArrayList<>();
+        mirrors.add(new Mirror(urlString, info));
+        Map<String, CompletableFuture<RemoteFileInfo>> probes = new LinkedHashMap<>();
+        for (String mirrorUrl : mirrorUrls) {
+            probes.put(mirrorUrl, RemoteInfoCache.shared().probeAsync(mirrorUrl));
+        }
+        for (Map.Entry<String, CompletableFuture<RemoteFileInfo>> probe : probes.entrySet()) {
+            String problem;
+            try {
+                RemoteFileInfo mirrorInfo = probe.getValue().get();
+                problem = mirrorMismatch(info, mirrorInfo);
+                if (problem == null) {
+                    mirrors.add(new Mirror(probe.getKey(), mirrorInfo));
+                    continue;
+                }
+            } catch (ExecutionException e) {
+                problem = e.getCause().getMessage();
             }
+            fireStatus("Ignoring mirror " + probe.getKey() + ": " + problem);
+        }
+        return mirrors;
+    }
 
-            inputStream = connection.getInputStream();
-            fileOutputStream = new FileOutputStream(fileName);
+    /**
+     * Why a mirror cannot be trusted to serve the same bytes, or null if it can.
+     * Servers give the same file different ETags, so differing strong ETags are
+     * only accepted when the expected checksum will catch a wrong file.
+     */
+    private String mirrorMismatch(RemoteFileInfo info, RemoteFileInfo mirrorInfo) {
+        if (!mirrorInfo.acceptsRanges()) {
+            return "no range support";
+        }
+        if (mirrorInfo.getSize() != info.getSize()) {
+            return "size " + mirrorInfo.getSize() + " instead of " + info.getSize();
+        }
+        String etag = info.getEtag();
+        String mirrorEtag = mirrorInfo.getEtag();
+        if (expectedChecksum == null && etag != null && mirrorEtag != null
+                && !etag.startsWith("W/") && !mirrorEtag.startsWith("W/") && !etag.equals(mirrorEtag)) {
+            return "ETag " + mirrorEtag + " instead of " + etag;
+        }
+        return null;
+    }
 
-            final String finalFileName = fileName;
-            SwingUtilities.invokeLater(() -> statusLabel.setText("Downloading: " + finalFileName));
+    private void downloadSegmented(String fileName, RemoteFileInfo info, DownloadJournal journal,
+                                   List<Mirror> mirrors) throws Exception {
+        long totalFileSize = info.getSize();
+        SegmentPlanner planner = new SegmentPlanner(splitRanges(journal.missingRanges()), segmentCount, maxConnections);
+        // Only MP4-style files get an answer other than NONE; null while the first box headers are still missing
+        long[] trailingIndex = streaming ? null : MediaIndex.NONE;
+        AtomicLong totalBytesRead = new AtomicLong(journal.completedBytes());
+        AtomicInteger running = new AtomicInteger();
+        AtomicBoolean stop = new AtomicBoolean();
+        long lastJournalSave = System.nanoTime();
 
-            byte[] buffer = new byte[4096];
-            int bytesRead;
+        // One virtual thread per connection; they spend nearly all their time blocked on the socket
+        ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+        // Reserve the whole file so every segment can write at its own offset
+        FileChannel channel = output.open(totalFileSize);
+        activeJournal = journal;
+        activePlanner = planner;
+        try {
+            if (hasher != null) {
+                hasher.start(channel);
+                // Data from an earlier attempt is read back once the hash reaches it
+                for (long[] range : journal.completedRanges()) {
+                    hasher.alreadyWritten(range[0], range[1]);
+                }
+            }
 
-            if (totalFileSize > 0) {
-                // Size known, publish percentage progress
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    if (isCancelled()) {
-                        break;
-                    }
-                    fileOutputStream.write(buffer, 0, bytesRead);
-                    totalBytesRead += bytesRead;
-                    int currentProgress = (int) ((totalBytesRead * 100) / totalFileSize);
-                    if (currentProgress > lastPublishedProgress) {
-                        lastPublishedProgress = currentProgress;
-                        publish(Integer.valueOf(currentProgress));
-                        Thread.sleep(25); // Slow down for visual effect
+            String resumeNote = totalBytesRead.get() > 0 ? ", resuming" : "";
+            List<Future<?>> futures = new ArrayList<>();
+            int shownConnections = 0;
+            int shownMirrors = 0;
+            while (true) {
+                // Open connections up to what the planner currently wants
+                while (running.get() < planner.getTarget() && planner.hasSpareWork()) {
+                    Connection connection = new Connection(Mirror.pick(mirrors));
+                    connection.mirror.connectionOpened();
+                    running.incrementAndGet();
+                    futures.add(workers.submit(() -> runWorker(planner, connection, mirrors, channel,
+                            totalBytesRead, journal, running, stop)));
+                }
+                int usableMirrors = Mirror.countUsable(mirrors);
+                if (planner.getTarget() != shownConnections || usableMirrors != shownMirrors) {
+                    shownConnections = planner.getTarget();
+                    shownMirrors = usableMirrors;
+                    String mirrorNote = mirrors.size() > 1 ? ", " + usableMirrors + " mirrors" : "";
+                    fireStatus("Downloading: " + fileName + " (" + shownConnections + " connections"
+                            + mirrorNote + resumeNote + ")");
+                }
+
+                Iterator<Future<?>> it = futures.iterator();
+                while (it.hasNext()) {
+                    Future<?> future = it.next();
+                    if (!future.isDone()) continue;
+                    it.remove();
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        throw cause instanceof Exception ? (Exception) cause : e;
                     }
                 }
-                publish(Integer.valueOf(100));
-            } else {
-                // Size unknown, publish bytes downloaded and use indeterminate progress
-                publish("start_unknown");
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    if (isCancelled()) {
-                        break;
+                if (isCancelled()) {
+                    return;
+                }
+                if (futures.isEmpty() && planner.isComplete()) {
+                    break;
+                }
+
+                Thread.sleep(100);
+                long now = System.nanoTime();
+                planner.sample(totalBytesRead.get(), now);
+                fireProgress(totalBytesRead.get(), totalFileSize);
+                updateReadablePrefix();
+                if (trailingIndex == null) {
+                    trailingIndex = MediaIndex.trailingIndex(channel, readablePrefix, totalFileSize);
+                    if (trailingIndex != null && trailingIndex.length > 0) {
+                        // The player needs the index before it can show anything
+                        planner.prioritize(trailingIndex[0]);
                     }
-                    fileOutputStream.write(buffer, 0, bytesRead);
-                    totalBytesRead += bytesRead;
-                    publish(Long.valueOf(totalBytesRead));
-                    Thread.sleep(25); // Slow down for visual effect
                 }
+                if (now - lastJournalSave > JOURNAL_SAVE_INTERVAL_NANOS) {
+                    journal.save(channel);
+                    lastJournalSave = now;
+                }
+            }
+            if (!isCancelled() && hasher != null) {
+                checksum = hasher.finish(totalFileSize);
             }
+            fireProgress(totalBytesRead.get(), totalFileSize);
         } finally {
-            if (inputStream != null) {
-                try {
-                    inputStream.close();
-                } catch (Exception ignored) {}
+            // Let the workers finish their current write before the file and journal are closed.
+            // No interrupts here: an interrupted FileChannel write closes the channel for everyone.
+            stop.set(true);
+            if (hasher != null) hasher.stop();
+            activePlanner = null;
+            workers.shutdown();
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+            try {
+                // Deleted once the file has its final name. If the channel broke, the last save stands
+                if (channel.isOpen()) journal.save(channel);
+            } finally {
+                output.close();
             }
-            if (fileOutputStream != null) {
+        }
+    }
+
+    /**
+     * One connection: fetches ranges from the planner until there is no work
+     * left, the planner wants fewer connections, its mirror fails, or the
+     * download stops. Failed ranges go back to the planner; the connection
+     * backs off and carries on until the retries run out.
+     */
+    private Void runWorker(SegmentPlanner planner, Connection connection, List<Mirror> mirrors, FileChannel channel,
+                           AtomicLong totalBytesRead, DownloadJournal journal, AtomicInteger running,
+                           AtomicBoolean stop) throws IOException, InterruptedException {
+        Mirror mirror = connection.mirror;
+        BooleanSupplier retire = () -> {
+            int n = running.get();
+            return n > planner.getTarget() && running.compareAndSet(n, n - 1) && connection.retired.compareAndSet(false, true);
+        };
+        double lastRate = 0;
+        try {
+            SegmentPlanner.Segment segment;
+            while (!stop.get() && !isCancelled() && !mirror.isDown() && (segment = planner.next(lastRate)) != null) {
+                boolean complete = false;
+                IOException failure = null;
                 try {
-                    fileOutputStream.close();
-                } catch (Exception ignored) {}
+                    complete = downloadRange(channel, segment, mirror, totalBytesRead, journal, stop, retire);
+                } catch (IOException e) {
+                    failure = e;
+                } finally {
+                    planner.release(segment);
+                }
+                if (failure != null) {
+                    if (stop.get() || isCancelled()) return null;
+                    if (failure instanceof ServerBusyException && running.get() > 1) {
+                        // Let the remaining connections carry on
+                        planner.throttled(running.get());
+                        return null;
+                    }
+                    if (retryPolicy.isRetryable(failure) && failOver(mirror, mirrors, describe(failure))) {
+                        return null; // A replacement opens on another mirror
+                    }
+                    long delay = retryDelay(failure);
+                    if (delay < 0) throw failure;
+                    if (!backOff(delay, stop)) return null;
+                    continue;
+                }
+                if (!complete || retire.getAsBoolean()) {
+                    return null;
+                }
+                lastRate = segment.rate();
+                mirror.rangeFinished(lastRate);
             }
+            return null;
+        } finally {
+            mirror.connectionClosed();
+            if (connection.retired.compareAndSet(false, true)) running.decrementAndGet();
         }
-        return null;
     }
 
-    @Override
-    protected void process(List<Object> chunks) {
-        if (isCancelled()) return;
-        Object latest = chunks.get(chunks.size() - 1);
-        if (latest instanceof String) {
-            if ("start_unknown".equals(latest)) {
-                progressBar.setIndeterminate(true);
-                statusLabel.setText("Downloading (size unknown)...");
+    /**
+     * Marks {@code mirror} down so its ranges move to the others. Returns false,
+     * leaving it up, if it is the last usable one: then it is retried like a single source.
+     */
+    private boolean failOver(Mirror mirror, List<Mirror> mirrors, String reason) {
+        synchronized (mirrors) {
+            if (mirror.isDown()) return true;
+            if (Mirror.countUsable(mirrors) <= 1) return false;
+            mirror.markDown(reason);
+        }
+        fireStatus("Mirror " + mirror.getHost() + " failed (" + reason + "), switching to the others");
+        return true;
+    }
+
+    /**
+     * Cuts the missing ranges into pieces so that all connections have work.
+     * When streaming they are smaller, so that the connections work close
+     * together and the readable prefix grows steadily instead of in quarters.
+     */
+    private List<long[]> splitRanges(List<long[]> missing) {
+        long remaining = 0;
+        for (long[] range : missing) remaining += range[1] - range[0] + 1;
+        long pieceSize = streaming
+                ? Math.max(STREAM_HEAD_SIZE, remaining / STREAM_PIECES)
+                : Math.max(MIN_SEGMENT_SIZE, (remaining + segmentCount - 1) / segmentCount);
+
+        List<long[]> pieces = new ArrayList<>();
+        for (long[] range : missing) {
+            long start = range[0];
+            while (start <= range[1]) {
+                long size = streaming && pieces.isEmpty() ? STREAM_HEAD_SIZE : pieceSize;
+                long end = Math.min(range[1], start + size - 1);
+                pieces.add(new long[]{start, end});
+                start = end + 1;
             }
-        } else if (latest instanceof Integer) {
-            progressBar.setIndeterminate(false); // Ensure determinate mode
-            progressBar.setValue((Integer) latest);
-        } else if (latest instanceof Long) {
-            statusLabel.setText("Downloaded: " + formatBytes((Long) latest));
         }
+        return pieces;
     }
 
-    @Override
-    protected void done() {
-        try {
-            if (!isCancelled()) {
-                get(); // Check for exceptions
-                SwingUtilities.invokeLater(() -> {
-                    progressBar.setIndeterminate(false);
-                    progressBar.setValue(100);
-                    statusLabel.setText("Status: Selesai");
-                });
+    /**
+     * Fetches {@code segment} until it is done. Returns false if the connection
+     * should give up the rest of it: the download stopped or {@code retire} agreed
+     * to drop this connection. The segment's end can move down while this runs.
+     */
+    private boolean downloadRange(FileChannel channel, SegmentPlanner.Segment segment, Mirror mirror,
+                                  AtomicLong totalBytesRead, DownloadJournal journal, AtomicBoolean stop,
+                                  BooleanSupplier retire) throws IOException {
+        long start = segment.getStart();
+        String validator = mirror.getInfo().getValidator();
+        HttpRequest.Builder request = HttpClients.request(mirror.getUrl())
+                .header("Range", "bytes=" + start + "-" + segment.getEnd());
+        if (validator != null) {
+            // Server answers 200 with the whole body instead of 206 if the file changed
+            request.header("If-Range", validator);
+        }
+        long sent = metrics.requestSent();
+        HttpResponse<InputStream> response = HttpClients.send(HttpClients.segments(), request.build(),
+                HttpResponse.BodyHandlers.ofInputStream());
+        metrics.responseReceived(sent);
+        try (InputStream in = response.body();
+             StallWatchdog.Watch watch = StallWatchdog.shared().watch(in)) {
+            int status = response.statusCode();
+            if (status == HTTP_TOO_MANY_REQUESTS || status == HTTP_SERVICE_UNAVAILABLE) {
+                throw new ServerBusyException(HttpStatusException.of("Server refused another connection", response));
+            }
+            if (status / 100 == 2 && status != HTTP_PARTIAL_CONTENT) {
+                throw new FatalDownloadException("Server ignored range request (HTTP " + status + ")");
+            }
+            if (status != HTTP_PARTIAL_CONTENT) {
+                throw HttpStatusException.of("Range request failed", response);
+            }
+            ByteBuffer buffer = bufferPool.acquire();
+            byte[] scratch = new byte[SCRATCH_SIZE];
+            try {
+                while (!segment.isDone()) {
+                    buffer.clear();
+                    int chunk = bandwidthLimits.chunkSize(mirror.getHost(), rateLimiter, buffer.capacity());
+                    buffer.limit((int) Math.min(chunk, segment.getEnd() - segment.getPosition() + 1));
+                    int bytesRead;
+                    try {
+                        bytesRead = read(in, in, buffer, scratch, watch);
+                    } catch (IOException e) {
+                        throw watch.explain(e);
+                    }
+                    if (bytesRead == -1) {
+                        break;
+                    }
+                    if (isCancelled() || stop.get()) {
+                        return false;
+                    }
+                    bandwidthLimits.acquire(mirror.getHost(), rateLimiter, bytesRead);
+                    metrics.received(bytesRead);
+                    long position = segment.getPosition();
+                    // Another connection may have taken over the tail while we were reading
+                    int kept = segment.claim(bytesRead);
+                    buffer.flip().limit(kept);
+                    int written = 0;
+                    while (buffer.hasRemaining()) {
+                        written += channel.write(buffer, position + written);
+                    }
+                    if (written > 0) {
+                        if (hasher != null) {
+                            hasher.written(position, position + written - 1);
+                        }
+                        journal.markCompleted(position, position + written - 1);
+                        totalBytesRead.addAndGet(written);
+                        mirror.addBytes(written);
+                        metrics.written(written);
+                        madeProgress();
+                    }
+                    if (!segment.isDone() && (mirror.isDown() || retire.getAsBoolean())) {
+                        return false;
+                    }
+                }
+                if (!segment.isDone()) {
+                    throw new IOException("Connection closed before range " + start + "-" + segment.getEnd() + " completed");
+                }
+                return true;
+            } finally {
+                bufferPool.release(buffer);
             }
-        } catch (Exception e) {
-            SwingUtilities.invokeLater(() -> {
-                progressBar.setIndeterminate(false);
-                statusLabel.setText("Status: Error! " + e.getMessage());
-            });
-            e.printStackTrace();
         }
     }
 
-    private String formatBytes(long bytes) {
-        if (bytes < 1024) return bytes + " B";
-        int exp = (int) (Math.log(bytes) / Math.log(1024));
-        char pre = "KMGTPE".charAt(exp - 1);
-        return String.format("%.1f %cB", bytes / Math.pow(1024, exp), pre);
+    /**
+     * Fetches the file in one response. After a failed attempt it asks for the
+     * rest only, and starts over if the server sends the whole file instead.
+     * Without a validator there is no telling whether the file changed in
+     * between, so then it always starts over.
+     */
+    private void downloadSingleStream(String fileName, RemoteFileInfo info) throws Exception {
+        Path path = output.getPartPath();
+        activeJournal = null;
+        streamedBytes = 0;
+        String validator = info != null ? info.getValidator() : null;
+        long offset = validator != null && streamOffset > 0 && Files.exists(path) && Files.size(path) >= streamOffset
+                ? streamOffset : 0;
+
+        HttpRequest.Builder request = HttpClients.request(urlString).GET();
+        if (offset > 0) {
+            request.header("Range", "bytes=" + offset + "-");
+            request.header("If-Range", validator);
+        } else if (ContentEncoding.worthCompressing(urlString, info != null ? info.getContentType() : null)) {
+            // Only for whole-file requests: a retry continues with an identity range after the decoded bytes
+            request.header("Accept-Encoding", ContentEncoding.ACCEPT);
+        }
+        long sent = metrics.requestSent();
+        HttpResponse<InputStream> response = HttpClients.send(HttpClients.shared(), request.build(),
+                HttpResponse.BodyHandlers.ofInputStream());
+        metrics.responseReceived(sent);
+        if (response.statusCode() / 100 != 2) {
+            response.body().close();
+            throw HttpStatusException.of("Server refused the download", response);
+        }
+        if (response.statusCode() != HTTP_PARTIAL_CONTENT) {
+            offset = 0; // Whole file again
+        }
+        String encoding = response.headers().firstValue("Content-Encoding").orElse(null);
+        boolean encoded = ContentEncoding.isEncoded(encoding);
+        long length = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+        // A compressed body's length says nothing about the file's, so only the estimate below is known
+        long totalFileSize = encoded ? -1 : knownFileSize;
+
+        // If file size is still unknown, try to get it from the GET response
+        if (totalFileSize == -1 && !encoded) {
+            totalFileSize = length >= 0 ? offset + length : -1;
+        }
+
+        long totalBytesRead = offset;
+        streamOffset = offset;
+        ByteBuffer buffer = bufferPool.acquire();
+        byte[] scratch = new byte[SCRATCH_SIZE];
+        ContentEncoding.CountingInputStream wire = new ContentEncoding.CountingInputStream(response.body());
+        try (StallWatchdog.Watch watch = StallWatchdog.shared().watch(wire);
+             InputStream in = decode(wire, encoding, watch);
+             OutputFile file = output) {
+            FileChannel out = file.open(-1);
+            // Drop whatever an earlier attempt wrote past the point we continue from, then reserve the rest
+            out.truncate(offset);
+            streamedBytes = offset;
+            if (totalFileSize > 0) {
+                file.preallocate(totalFileSize);
+                dataSize = totalFileSize;
+            }
+            if (hasher != null) {
+                hasher.start(out);
+                hasher.alreadyWritten(0, offset - 1);
+            }
+
+            fireStatus("Downloading: " + fileName + (offset > 0 ? " (resuming)" : encoded ? " (" + encoding + ")" : ""));
+
+            // Every chunk is reported; listeners decide how often they actually redraw.
+            // A total of -1 tells them the size is unknown.
+            long reportedTotal = totalFileSize > 0 ? totalFileSize : -1;
+            fireProgress(totalBytesRead, reportedTotal);
+            int bytesRead;
+            long wireRead = 0;
+            while (true) {
+                try {
+                    bytesRead = readChunk(in, wire, buffer, scratch, watch);
+                } catch (IOException e) {
+                    throw watch.explain(e);
+                }
+                if (bytesRead == -1 || isCancelled()) {
+                    break;
+                }
+                // Limits and throughput count what crossed the network, the file gets the decoded bytes
+                long wireDelta = wire.getCount() - wireRead;
+                wireRead += wireDelta;
+                bandwidthLimits.acquire(host, rateLimiter, (int) wireDelta);
+                metrics.received(wireDelta);
+                int written = drain(buffer, out, totalBytesRead);
+                totalBytesRead += written;
+                metrics.written(written);
+                if (encoded && length > 0 && wireRead > 0) {
+                    // The compression ratio so far projects the decoded size; exact once all of it is in
+                    reportedTotal = Math.max(totalBytesRead, totalBytesRead * length / wireRead);
+                }
+                streamOffset = totalBytesRead;
+                streamedBytes = totalBytesRead;
+                updateReadablePrefix();
+                if (totalBytesRead > streamFurthest) {
+                    streamFurthest = totalBytesRead;
+                    madeProgress();
+                }
+                fireProgress(totalBytesRead, reportedTotal);
+            }
+            if (!isCancelled() && totalFileSize > 0 && totalBytesRead < totalFileSize) {
+                throw new IOException("Connection closed after " + totalBytesRead + " of " + totalFileSize + " bytes");
+            }
+            if (!isCancelled() && encoded && length > 0 && wireRead < length) {
+                throw new IOException("Connection closed after " + wireRead + " of " + length + " compressed bytes");
+            }
+            if (encoded && !isCancelled()) {
+                fireProgress(totalBytesRead, totalBytesRead);
+            }
+
+            if (hasher != null && !isCancelled()) {
+                checksum = hasher.finish(totalBytesRead);
+            }
+        } finally {
+            if (hasher != null) hasher.stop();
+            bufferPool.release(buffer);
+        }
+    }
+
+    /** Sets up decoding of a compressed body; the decoder reads its header right away, so that is watched too. */
+    private static InputStream decode(InputStream wire, String encoding, StallWatchdog.Watch watch) throws IOException {
+        watch.beginRead();
+        try {
+            return ContentEncoding.decode(wire, encoding);
+        } catch (IOException e) {
+            throw watch.explain(e);
+        } finally {
+            watch.endRead(0);
+        }
+    }
+
+    /** Reads no more than the rate limits allow in one go, so throttled transfers stay smooth. */
+    private int readChunk(InputStream in, InputStream wire, ByteBuffer buffer, byte[] scratch,
+                          StallWatchdog.Watch watch) throws IOException {
+        buffer.limit(bandwidthLimits.chunkSize(host, rateLimiter, buffer.capacity()));
+        return read(in, wire, buffer, scratch, watch);
+    }
+
+    /**
+     * Same as {@code Channels.newChannel(in).read(buffer)}, minus the lock that
+     * adapter holds while blocked: blocking inside synchronized pins a virtual
+     * thread to its carrier, and on a machine with few cores the other
+     * connections would not get to run at all. {@code wire} is the raw body
+     * under {@code in}, the same stream unless {@code in} decodes it. Every read
+     * can block, even after {@code wire} had bytes, so the watch sees them all.
+     */
+    private static int read(InputStream in, InputStream wire, ByteBuffer buffer, byte[] scratch,
+                            StallWatchdog.Watch watch) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            // Block for the first bytes only, then take whatever else has already arrived.
+            // Asks the raw body: gzip and inflater streams claim a byte is available until the end
+            if (total > 0 && wire.available() <= 0) break;
+            watch.beginRead();
+            int n = in.read(scratch, 0, Math.min(scratch.length, buffer.remaining()));
+            watch.endRead(n);
+            if (n < 0) return total > 0 ? total : -1;
+            buffer.put(scratch, 0, n);
+            total += n;
+        }
+        return total;
+    }
+
+    /** Writes everything read into {@code buffer} and leaves it cleared for the next read. */
+    private int drain(ByteBuffer buffer, FileChannel out, long position) throws IOException {
+        buffer.flip();
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += out.write(buffer, position + written);
+        }
+        if (hasher != null) {
+            hasher.written(position, position + written - 1);
+        }
+        buffer.clear();
+        return written;
+    }
+
+    static String fileNameFor(String urlString) {
+        String fileName = urlString.substring(urlString.lastIndexOf('/') + 1);
+        if (fileName.isEmpty() || fileName.contains("?")) {
+            fileName = "downloaded_file";
+        }
+        return fileName;
+    }
+
+    /** A worker of a segmented download: its mirror and whether it still counts as running. */
+    private static class Connection {
+        final Mirror mirror;
+        final AtomicBoolean retired = new AtomicBoolean();
+
+        Connection(Mirror mirror) {
+            this.mirror = mirror;
+        }
+    }
+
+    /** HTTP 429/503 on a range request: the server wants fewer connections, not a failed download. */
+    private static class ServerBusyException extends HttpStatusException {
+        ServerBusyException(HttpStatusException status) {
+            super(status.getMessage(), status.getStatusCode(), status.getRetryAfter());
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,264 @@
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps an eye on the Event Dispatch Thread. It times every event the EDT
+ * dispatches, measures how long a posted event waits before it runs, and
+ * when one dispatch takes longer than {@value #STALL_PROPERTY} (default
+ * 100 ms) it takes a stack sample of the EDT while it is still stuck and
+ * prints it to stderr. The download list records the EDT time each running
+ * download costs into {@link #uiCostOf}; finished rows share one histogram.
+ * Everything is exported with the other metrics.
+ * <p>
+ * Off with {@code -Dtwiby.edt.watchdog=false}.
+ */
+public final class EdtWatchdog {
+
+    public static final String STALL_PROPERTY = "twiby.edt.stallMillis";
+    public static final double FRAME_BUDGET_MILLIS = 16;
+
+    private static final EdtWatchdog SHARED = new EdtWatchdog();
+    private static final long PROBE_INTERVAL_MILLIS = 100;
+    private static final long SAMPLE_INTERVAL_MILLIS = 20;
+    private static final int MAX_STALLS_KEPT = 20;
+    private static final int MAX_FRAMES_PRINTED = 25;
+    // Per-download series exported at most; the history can have tens of thousands of rows
+    private static final int MAX_UI_SERIES = 50;
+
+    private final LatencyHistogram dispatch = new LatencyHistogram();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    // Running downloads only, see finishedUiCost
+    private final Map<String, LatencyHistogram> uiCost = new ConcurrentHashMap<>();
+    // Finished rows, history and running rows past MAX_UI_SERIES
+    private final LatencyHistogram otherUiCost = new LatencyHistogram();
+    private final Deque<Stall> stalls = new ArrayDeque<>();
+    private final AtomicLong stallCount = new AtomicLong();
+    private final AtomicBoolean probePending = new AtomicBoolean();
+    private final long stallNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, Long.getLong(STALL_PROPERTY, 100)));
+    private ScheduledExecutorService timer;
+    private volatile Thread edt;
+    // Start of the EDT's own work on the current event, 0 while it waits for events
+    private volatile long busySince = 0;
+    private volatile AWTEvent current;
+    // busySince of the dispatch already sampled, so one long stall is reported once
+    private long sampledSince = 0;
+
+    private EdtWatchdog() {}
+
+    public static EdtWatchdog shared() {
+        return SHARED;
+    }
+
+    /** Starts watching unless turned off. Call once, on the EDT, before the window opens. */
+    public synchronized void installIfEnabled() {
+        if (!Boolean.parseBoolean(System.getProperty("twiby.edt.watchdog", "true")) || timer != null) return;
+        edt = Thread.currentThread();
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(new TimedEventQueue());
+        timer = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("edt-watchdog").daemon().factory());
+        timer.scheduleAtFixedRate(this::probe, PROBE_INTERVAL_MILLIS, PROBE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        timer.scheduleAtFixedRate(this::sample, SAMPLE_INTERVAL_MILLIS, SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isInstalled() {
+        return edt != null;
+    }
+
+    /**
+     * EDT time spent on a running download's row: model updates and painting.
+     * Past {@value #MAX_UI_SERIES} running downloads, or for a second row of the
+     * same URL, this is the histogram the finished rows share.
+     */
+    public synchronized LatencyHistogram uiCostOf(String url) {
+        if (uiCost.size() >= MAX_UI_SERIES || uiCost.containsKey(url)) return otherUiCost;
+        LatencyHistogram histogram = new LatencyHistogram();
+        uiCost.put(url, histogram);
+        return histogram;
+    }
+
+    /** The histogram rows share once their download is over, and from the start for history. */
+    public LatencyHistogram sharedUiCost() {
+        return otherUiCost;
+    }
+
+    /**
+     * Stops exporting a download's row once it is over, as {@link MetricsRegistry#remove}
+     * does with its MBean: what it recorded is added to the shared histogram, which
+     * is returned for the row to record into from now on.
+     */
+    public synchronized LatencyHistogram finishedUiCost(String url, LatencyHistogram histogram) {
+        if (uiCost.remove(url, histogram)) otherUiCost.addAll(histogram);
+        return otherUiCost;
+    }
+
+    public LatencyHistogram getDispatchTimes() { return dispatch; }
+    public LatencyHistogram getEventLatency() { return latency; }
+    public long getStallCount() { return stallCount.get(); }
+
+    /** The most recent stalls, oldest first. */
+    public synchronized List<Stall> getRecentStalls() {
+        return new ArrayList<>(stalls);
+    }
+
+    /** Posts a no-op and times how long it waits behind the events already queued. */
+    private void probe() {
+        if (!probePending.compareAndSet(false, true)) return; // Still queued, the sampler will see the stall
+        long posted = System.nanoTime();
+        EventQueue.invokeLater(() -> {
+            latency.record(System.nanoTime() - posted);
+            probePending.set(false);
+        });
+    }
+
+    /** Runs on the watchdog thread: takes the EDT's stack if its current event has run too long. */
+    private void sample() {
+        long since = busySince;
+        if (since == 0 || since == sampledSince) return;
+        long busy = System.nanoTime() - since;
+        if (busy < stallNanos) return;
+        AWTEvent event = current;
+        StackTraceElement[] stack = edt.getStackTrace();
+        // The EDT may have moved on while the stack was taken; then this is not the stall
+        if (busySince != since) return;
+        sampledSince = since;
+        Stall stall = new Stall(System.currentTimeMillis(), busy / 1_000_000, describe(event), stack);
+        stallCount.incrementAndGet();
+        synchronized (this) {
+            if (stalls.size() == MAX_STALLS_KEPT) stalls.removeFirst();
+            stalls.addLast(stall);
+        }
+        System.err.print(stall);
+    }
+
+    private static String describe(AWTEvent event) {
+        if (event == null) return "unknown event";
+        String params = event.paramString();
+        return event.getClass().getSimpleName() + "[" + (params.length() > 160 ? params.substring(0, 160) + "..." : params) + "]";
+    }
+
+    /** Everything the watchdog measured, in the Prometheus text format; nothing if it is not running. */
+    public void writePrometheus(StringBuilder out) {
+        if (!isInstalled()) return;
+        histogram(out, "twiby_edt_dispatch_seconds", "Time the EDT spent on each event, not counting nested modal loops.");
+        dispatch.writePrometheus(out, "twiby_edt_dispatch_seconds", "");
+        histogram(out, "twiby_edt_latency_seconds", "How long a posted event waited before the EDT ran it.");
+        latency.writePrometheus(out, "twiby_edt_latency_seconds", "");
+        out.append("# HELP twiby_edt_over_budget_total Dispatches longer than a 60 Hz frame.\n")
+                .append("# TYPE twiby_edt_over_budget_total counter\n")
+                .append("twiby_edt_over_budget_total ").append(dispatch.countAbove(FRAME_BUDGET_MILLIS)).append('\n');
+        out.append("# HELP twiby_edt_stalls_total Dispatches that ran past the stall threshold.\n")
+                .append("# TYPE twiby_edt_stalls_total counter\n")
+                .append("twiby_edt_stalls_total ").append(stallCount.get()).append('\n');
+        histogram(out, "twiby_download_ui_seconds",
+                "EDT time spent on one running download's row; url=\"other\" for all the rest.");
+        uiCost.forEach((url, histogram) -> {
+            // Rows not drawn yet would only add noise
+            if (histogram.getCount() == 0) return;
+            histogram.writePrometheus(out, "twiby_download_ui_seconds",
+                    "url=\"" + url.replace("\\", "\\\\").replace("\"", "\\\"") + "\"");
+        });
+        otherUiCost.writePrometheus(out, "twiby_download_ui_seconds", "url=\"other\"");
+    }
+
+    private static void histogram(StringBuilder out, String name, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(" histogram\n");
+    }
+
+    /**
+     * Times each dispatch. A modal dialog waits for and dispatches events from
+     * inside the one that opened it, so that time is taken off the outer event;
+     * otherwise every open dialog would look like a stall.
+     */
+    private class TimedEventQueue extends EventQueue {
+        // Only touched on the EDT: {start, nanos not spent on the event itself} of each dispatch in progress
+        private final Deque<long[]> running = new ArrayDeque<>();
+
+        @Override
+        public AWTEvent getNextEvent() throws InterruptedException {
+            long[] frame = running.peek();
+            if (frame == null) return super.getNextEvent();
+            // A nested event loop waiting for input, not the outer event being slow
+            long start = System.nanoTime();
+            busySince = 0;
+            try {
+                return super.getNextEvent();
+            } finally {
+                frame[1] += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        protected void dispatchEvent(AWTEvent event) {
+            long start = System.nanoTime();
+            long[] frame = {start, 0};
+            if (running.isEmpty()) edt = Thread.currentThread(); // AWT starts a new EDT after an uncaught exception
+            running.push(frame);
+            AWTEvent outer = current;
+            current = event;
+            busySince = start;
+            try {
+                super.dispatchEvent(event);
+            } finally {
+                long end = System.nanoTime();
+                running.pop();
+                dispatch.record(end - start - frame[1]);
+                long[] parent = running.peek();
+                if (parent != null) {
+                    parent[1] += end - start;
+                    current = outer;
+                    busySince = end; // The outer event carries on from here
+                } else {
+                    current = null;
+                    busySince = 0;
+                }
+            }
+        }
+    }
+
+    /** One dispatch that ran too long, with where the EDT was when it was sampled. */
+    public static class Stall {
+        private final long timeMillis;
+        private final long millis;
+        private final String event;
+        private final StackTraceElement[] stack;
+
+        Stall(long timeMillis, long millis, String event, StackTraceElement[] stack) {
+            this.timeMillis = timeMillis;
+            this.millis = millis;
+            this.event = event;
+            this.stack = stack;
+        }
+
+        /** Wall-clock time of the sample. */
+        public long getTimeMillis() { return timeMillis; }
+        /** How long the event had been running when it was sampled. */
+        public long getMillis() { return millis; }
+        public String getEvent() { return event; }
+        public StackTraceElement[] getStack() { return stack.clone(); }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder("EDT blocked for ").append(millis).append(" ms by ")
+                    .append(event).append('\n');
+            for (int i = 0; i < Math.min(stack.length, MAX_FRAMES_PRINTED); i++) {
+                text.append("\tat ").append(stack[i]).append('\n');
+            }
+            if (stack.length > MAX_FRAMES_PRINTED) {
+                text.append("\t... ").append(stack.length - MAX_FRAMES_PRINTED).append(" more\n");
+            }
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,12 @@
+import java.io.IOException;
+
+/**
+ * A failure that trying again cannot fix, e.g. a checksum mismatch or a
+ * remote file that changed under a partial download.
+ */
+public class FatalDownloadException extends IOException {
+
+    public FatalDownloadException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,232 @@
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Scans a page for media links with {@link LinkHarvester} and lets the user
+ * pick which of them to download. Links appear in the list as their checks
+ * answer; all of them are selected once the scan is done. Closing the dialog
+ * cancels a scan that is still running.
+ */
+public class HarvestDialog extends JDialog {
+
+    private static final Color APPLE_GREEN = Color.decode("#60CD38");
+    private static final Color BLEU_DE_FRANCE = Color.decode("#2D96F6");
+    private static final Color LIGHT_GRAY = Color.decode("#F2F2F2");
+    private static final Color QUILL_GREY = Color.decode("#A8A8A8");
+    private static final Color CHARCOAL = Color.decode("#333333");
+
+    private final JTextField urlTextField = new JTextField(35);
+    private final JTextField extensionsTextField = new JTextField(String.join(", ", LinkHarvester.DEFAULT_EXTENSIONS.stream().sorted().toList()), 35);
+    private final JSpinner depthSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 5, 1));
+    private final DefaultListModel<LinkHarvester.Link> linkModel = new DefaultListModel<>();
+    private final JList<LinkHarvester.Link> linkList = new JList<>(linkModel);
+    private final JLabel statusLabel = new JLabel("Enter a page URL and press Scan");
+    private final RoundedButton scanButton = new RoundedButton("Scan");
+    private final RoundedButton downloadButton = new RoundedButton("Download");
+    private SwingWorker<List<LinkHarvester.Link>, LinkHarvester.Link> scan;
+    private LinkHarvester harvester;
+    private List<LinkHarvester.Link> chosenLinks = List.of();
+    private int pagesScanned = 0;
+
+    public HarvestDialog(JFrame parentFrame) {
+        super(parentFrame, "Harvest Links", true);
+        setSize(640, 480);
+        setLocationRelativeTo(parentFrame);
+        initComponents();
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                cancelScan();
+            }
+        });
+    }
+
+    private void initComponents() {
+        JPanel form = new JPanel(new GridBagLayout());
+        form.setBackground(LIGHT_GRAY);
+        form.setBorder(new EmptyBorder(10, 15, 5, 15));
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(5, 5, 5, 5);
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+
+        addRow(form, gbc, 0, "Page URL:", urlTextField);
+        extensionsTextField.setToolTipText("File extensions to collect, separated by commas");
+        addRow(form, gbc, 1, "Extensions:", extensionsTextField);
+
+        JPanel depthPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        depthPanel.setBackground(LIGHT_GRAY);
+        depthSpinner.setToolTipText("How many links deep to follow pages on the same site");
+        depthPanel.add(depthSpinner);
+        depthPanel.add(Box.createHorizontalStrut(15));
+        styleButton(scanButton, BLEU_DE_FRANCE);
+        depthPanel.add(scanButton);
+        addRow(form, gbc, 2, "Depth:", depthPanel);
+
+        linkList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                          boolean isSelected, boolean cellHasFocus) {
+                LinkHarvester.Link link = (LinkHarvester.Link) value;
+                String text = link.getUrl() + (link.getSize() >= 0 ? "  (" + formatBytes(link.getSize()) + ")" : "");
+                return super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+            }
+        });
+        linkList.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+        JScrollPane scrollPane = new JScrollPane(linkList);
+        scrollPane.setBorder(BorderFactory.createLineBorder(QUILL_GREY, 1));
+
+        statusLabel.setFont(new Font("Arial", Font.PLAIN, 12));
+        statusLabel.setForeground(QUILL_GREY.darker());
+
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 10, 0));
+        buttonPanel.setBackground(LIGHT_GRAY);
+        RoundedButton cancelButton = new RoundedButton("Cancel");
+        styleButton(cancelButton, Color.WHITE);
+        cancelButton.setForeground(CHARCOAL);
+        styleButton(downloadButton, APPLE_GREEN);
+        downloadButton.setEnabled(false); // Nothing to download until a scan found something
+        buttonPanel.add(cancelButton);
+        buttonPanel.add(downloadButton);
+
+        JPanel bottom = new JPanel(new BorderLayout(10, 0));
+        bottom.setBackground(LIGHT_GRAY);
+        bottom.setBorder(new EmptyBorder(8, 15, 12, 15));
+        bottom.add(statusLabel, BorderLayout.CENTER);
+        bottom.add(buttonPanel, BorderLayout.EAST);
+
+        JPanel content = new JPanel(new BorderLayout());
+        content.setBackground(LIGHT_GRAY);
+        content.add(form, BorderLayout.NORTH);
+        JPanel listPanel = new JPanel(new BorderLayout());
+        listPanel.setBackground(LIGHT_GRAY);
+        listPanel.setBorder(new EmptyBorder(0, 20, 0, 20));
+        listPanel.add(scrollPane, BorderLayout.CENTER);
+        content.add(listPanel, BorderLayout.CENTER);
+        content.add(bottom, BorderLayout.SOUTH);
+        setContentPane(content);
+
+        scanButton.addActionListener(e -> startScan());
+        urlTextField.addActionListener(e -> startScan());
+        linkList.addListSelectionListener(e -> downloadButton.setEnabled(!linkList.isSelectionEmpty()));
+        downloadButton.addActionListener(e -> {
+            chosenLinks = linkList.getSelectedValuesList();
+            dispose();
+        });
+        cancelButton.addActionListener(e -> dispose());
+    }
+
+    private void addRow(JPanel panel, GridBagConstraints gbc, int row, String title, JComponent field) {
+        JLabel label = new JLabel(title);
+        label.setFont(new Font("Arial", Font.BOLD, 14));
+        label.setForeground(CHARCOAL);
+        gbc.gridx = 0;
+        gbc.gridy = row;
+        gbc.weightx = 0;
+        panel.add(label, gbc);
+        if (field instanceof JTextField) {
+            field.setFont(new Font("Arial", Font.PLAIN, 13));
+            field.setBorder(BorderFactory.createCompoundBorder(
+                    BorderFactory.createLineBorder(QUILL_GREY, 1),
+                    BorderFactory.createEmptyBorder(4, 8, 4, 8)));
+        }
+        gbc.gridx = 1;
+        gbc.weightx = 1.0;
+        panel.add(field, gbc);
+    }
+
+    private static void styleButton(RoundedButton button, Color background) {
+        button.setFont(new Font("Arial", Font.BOLD, 13));
+        button.setBackground(background);
+        button.setForeground(Color.WHITE);
+        button.setFocusPainted(false);
+        button.setBorder(new EmptyBorder(7, 15, 7, 15));
+    }
+
+    private void startScan() {
+        String pageUrl = urlTextField.getText().trim();
+        if (pageUrl.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "URL tidak boleh kosong!", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        cancelScan();
+        linkModel.clear();
+        pagesScanned = 0;
+        harvester = new LinkHarvester();
+        List<String> extensions = LinkHarvester.parseList(extensionsTextField.getText());
+        if (!extensions.isEmpty()) harvester.setExtensions(new LinkedHashSet<>(extensions));
+        harvester.setMaxDepth((Integer) depthSpinner.getValue());
+        LinkHarvester running = harvester;
+        statusLabel.setText("Scanning...");
+
+        scan = new SwingWorker<>() {
+            @Override
+            protected List<LinkHarvester.Link> doInBackground() throws Exception {
+                return running.harvest(pageUrl, new LinkHarvester.Listener() {
+                    @Override
+                    public void pageStarted(String url, int depth) {
+                        SwingUtilities.invokeLater(() -> {
+                            if (running != harvester) return;
+                            pagesScanned++;
+                            statusLabel.setText("Scanning " + url);
+                        });
+                    }
+
+                    @Override
+                    public void linkFound(LinkHarvester.Link link) {
+                        publish(link);
+                    }
+                });
+            }
+
+            @Override
+            protected void process(List<LinkHarvester.Link> links) {
+                if (isCancelled()) return;
+                // Arrive in the order the checks answered; the final list below restores page order
+                links.forEach(linkModel::addElement);
+                statusLabel.setText("Found " + linkModel.size() + " files on " + pagesScanned + " pages, checking...");
+            }
+
+            @Override
+            protected void done() {
+                if (isCancelled()) return;
+                try {
+                    List<LinkHarvester.Link> links = get();
+                    linkModel.clear();
+                    linkModel.addAll(links);
+                    if (!links.isEmpty()) linkList.setSelectionInterval(0, links.size() - 1);
+                    statusLabel.setText("Found " + links.size() + " files on " + pagesScanned + " pages");
+                } catch (Exception e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    statusLabel.setText("Error: " + Downloader.describe(cause));
+                }
+            }
+        };
+        scan.execute();
+    }
+
+    private void cancelScan() {
+        if (scan != null) {
+            harvester.cancel();
+            scan.cancel(true);
+            scan = null;
+        }
+    }
+
+    /** Links the user chose to download, empty if the dialog was cancelled. */
+    public List<LinkHarvester.Link> getChosenLinks() {
+        return chosenLinks;
+    }
+
+    private String formatBytes(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        int exp = (int) (Math.log(bytes) / Math.log(1024));
+        char pre = "KMGTPE".charAt(exp - 1);
+        return String.format("%.1f %cB", bytes / Math.pow(1024, exp), pre);
+    }
+}
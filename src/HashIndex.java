@@ -0,0 +1,116 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Local index of downloaded content by hash, and by host + ETag + size, used
+ * to spot a payload we already have under another URL. Stored as appended
+ * tab-separated lines: {@code hash size host etag path}.
+ */
+public class HashIndex {
+
+    public static final String DEFAULT_FILE = "twiby-hashes.idx";
+
+    private static HashIndex shared;
+
+    public static class Entry {
+        final String hash;
+        final long size;
+        final String host;
+        final String etag;
+        final Path path;
+
+        Entry(String hash, long size, String host, String etag, Path path) {
+            this.hash = hash;
+            this.size = size;
+            this.host = host;
+            this.etag = etag;
+            this.path = path;
+        }
+
+        public String getHash() { return hash; }
+        public Path getPath() { return path; }
+    }
+
+    private final Path file;
+    private final Map<String, Entry> byHash = new HashMap<>();
+    private final Map<String, Entry> byEtag = new HashMap<>();
+
+    public HashIndex(Path file) throws IOException {
+        this.file = file;
+        if (Files.exists(file)) {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] f = line.split("\t", -1);
+                    if (f.length < 5) continue; // Torn line from a crash
+                    index(new Entry(f[0], Long.parseLong(f[1]), f[2], f[3].isEmpty() ? null : f[3], Path.of(f[4])));
+                }
+            }
+        }
+    }
+
+    /** Index in the working directory, opened on first use. */
+    public static synchronized HashIndex shared() throws IOException {
+        if (shared == null) {
+            shared = new HashIndex(Path.of(DEFAULT_FILE));
+        }
+        return shared;
+    }
+
+    /** An existing file with this content, or null. Entries whose file is gone or resized are ignored. */
+    public synchronized Entry findByHash(String hash) {
+        return existing(byHash.get(hash));
+    }
+
+    /**
+     * An existing file the same host served with the same strong ETag and size.
+     * ETags are only unique per server, so matches across hosts are never trusted.
+     */
+    public synchronized Entry findByEtag(String host, String etag, long size) {
+        if (etag == null || etag.startsWith("W/") || size < 0) return null;
+        return existing(byEtag.get(etagKey(host, etag, size)));
+    }
+
+    public synchronized void add(String hash, long size, String host, String etag, Path path) throws IOException {
+        Entry entry = new Entry(hash, size, host, etag, path.toAbsolutePath().normalize());
+        Entry known = byHash.get(hash);
+        if (known != null && known.path.equals(entry.path) && known.host.equals(host) && Objects.equals(known.etag, etag)) {
+            return; // Same file downloaded again, nothing new to record
+        }
+        index(entry);
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.write(hash + '\t' + size + '\t' + host + '\t' + (etag != null ? etag : "") + '\t' + entry.path);
+            writer.newLine();
+        }
+    }
+
+    private void index(Entry entry) {
+        byHash.put(entry.hash, entry);
+        if (entry.etag != null) {
+            byEtag.put(etagKey(entry.host, entry.etag, entry.size), entry);
+        }
+    }
+
+    private static Entry existing(Entry entry) {
+        if (entry == null || !Files.isRegularFile(entry.path)) return null;
+        try {
+            // Sync mode replaces files in place, so the path may hold newer content by now
+            return Files.size(entry.path) == entry.size ? entry : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String etagKey(String host, String etag, long size) {
+        return host + '\t' + etag + '\t' + size;
+    }
+}
@@ -0,0 +1,104 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+/**
+ * The HTTP clients every request in the app goes through, so connections and
+ * TLS sessions are pooled and reused instead of set up per call. Settings come
+ * from system properties:
+ * <ul>
+ *   <li>{@code twiby.http.connectTimeout} seconds to establish a connection (15)</li>
+ *   <li>{@code twiby.http.requestTimeout} seconds to wait for response headers (30)</li>
+ *   <li>{@code twiby.http.redirects} NEVER, NORMAL or ALWAYS (NORMAL)</li>
+ *   <li>{@code twiby.http.version} HTTP_2 or HTTP_1_1 (HTTP_2)</li>
+ * </ul>
+ * Idle keep-alive time is the JDK's own {@code jdk.httpclient.keepalive.timeout}.
+ * The connect timeout can also be set with {@link #configure}.
+ */
+public final class HttpClients {
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(Long.getLong("twiby.http.requestTimeout", 30));
+    private static final HttpClient.Redirect REDIRECTS =
+            HttpClient.Redirect.valueOf(System.getProperty("twiby.http.redirects", "NORMAL"));
+    private static final HttpClient.Version VERSION =
+            HttpClient.Version.valueOf(System.getProperty("twiby.http.version", "HTTP_2"));
+
+    private static Duration connectTimeout = Duration.ofSeconds(Long.getLong("twiby.http.connectTimeout", 15));
+    // Built on first use, so configure() works however early the class was touched
+    private static volatile HttpClient shared;
+    private static volatile HttpClient segments;
+
+    private HttpClients() {}
+
+    /**
+     * Sets the connect timeout. Call before the first request: clients already
+     * built are replaced, and their pooled connections are not reused.
+     */
+    public static synchronized void configure(Duration connectTimeout) {
+        HttpClients.connectTimeout = connectTimeout;
+        shared = null;
+        segments = null;
+    }
+
+    public static synchronized Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /** Client for probes, page fetches and single-stream downloads; prefers HTTP/2. */
+    public static HttpClient shared() {
+        HttpClient client = shared;
+        return client != null ? client : build(false);
+    }
+
+    /** Client for parallel range requests; one pooled HTTP/1.1 connection per segment. */
+    public static HttpClient segments() {
+        HttpClient client = segments;
+        return client != null ? client : build(true);
+    }
+
+    private static synchronized HttpClient build(boolean forSegments) {
+        if (forSegments) {
+            // Segments must land on separate TCP connections to add bandwidth; HTTP/2 would
+            // multiplex them all onto one. HTTP/1.1 still keeps each connection alive between ranges.
+            if (segments == null) segments = newClient(HttpClient.Version.HTTP_1_1);
+            return segments;
+        }
+        if (shared == null) shared = newClient(VERSION);
+        return shared;
+    }
+
+    /** Starts a request with the configured timeout; malformed URLs fail like {@code new URL} did. */
+    public static HttpRequest.Builder request(String urlString) throws IOException {
+        try {
+            return HttpRequest.newBuilder(URI.create(urlString)).timeout(REQUEST_TIMEOUT);
+        } catch (IllegalArgumentException e) {
+            MalformedURLException malformed = new MalformedURLException(urlString);
+            malformed.initCause(e);
+            throw malformed;
+        }
+    }
+
+    /** {@link HttpClient#send} with interruption turned into an {@link IOException}. */
+    public static <T> HttpResponse<T> send(HttpClient client, HttpRequest request,
+                                           HttpResponse.BodyHandler<T> bodyHandler) throws IOException {
+        try {
+            return client.send(request, bodyHandler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while requesting " + request.uri());
+        }
+    }
+
+    private static HttpClient newClient(HttpClient.Version version) {
+        return HttpClient.newBuilder()
+                .version(version)
+                .connectTimeout(connectTimeout)
+                .followRedirects(REDIRECTS)
+                .build();
+    }
+}
@@ -0,0 +1,53 @@
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * The server answered, but with a status we cannot use. Carries the status
+ * code and any Retry-After hint so the retry logic can tell a busy server
+ * from a missing file.
+ */
+public class HttpStatusException extends IOException {
+
+    private final int statusCode;
+    private final Duration retryAfter;
+
+    public HttpStatusException(String message, int statusCode, Duration retryAfter) {
+        super(message);
+        this.statusCode = statusCode;
+        this.retryAfter = retryAfter;
+    }
+
+    public static HttpStatusException of(String message, HttpResponse<?> response) {
+        return new HttpStatusException(message + " (HTTP " + response.statusCode() + ")", response.statusCode(),
+                response.headers().firstValue("Retry-After").map(HttpStatusException::parseRetryAfter).orElse(null));
+    }
+
+    public int getStatusCode() { return statusCode; }
+
+    /** How long the server asked us to wait, or null if it did not say. */
+    public Duration getRetryAfter() { return retryAfter; }
+
+    /** Server errors, timeouts and rate limiting may go away; other client errors will not. */
+    public boolean isTransient() {
+        return statusCode >= 500 || statusCode == 408 || statusCode == 429;
+    }
+
+    /** Retry-After is either a number of seconds or an HTTP date. */
+    static Duration parseRetryAfter(String value) {
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(value.trim())));
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime at = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                Duration wait = Duration.between(ZonedDateTime.now(at.getZone()), at);
+                return wait.isNegative() ? Duration.ZERO : wait;
+            } catch (DateTimeParseException ignored) {
+                return null;
+            }
+        }
+    }
+}
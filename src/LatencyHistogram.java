@@ -0,0 +1,91 @@
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations into fixed buckets, Prometheus style: bucket {@code i}
+ * holds everything up to {@link #BOUNDS_MILLIS}{@code [i]}, the last one the
+ * rest. The bounds bracket a 60 Hz frame (16 ms) and the 100 ms at which a
+ * user notices a delay, which is what the UI numbers are held against.
+ * Recording is lock-free, so the EDT pays two atomic adds per sample.
+ */
+public class LatencyHistogram {
+
+    static final double[] BOUNDS_MILLIS = {1, 2, 4, 8, 16, 33, 50, 100, 250, 500, 1000, 5000};
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS_MILLIS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        double millis = nanos / 1e6;
+        int i = 0;
+        while (i < BOUNDS_MILLIS.length && millis > BOUNDS_MILLIS[i]) i++;
+        buckets.incrementAndGet(i);
+        count.incrementAndGet();
+        sumNanos.addAndGet(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /** Adds everything {@code other} recorded, e.g. to fold a series that ended into a total. */
+    public void addAll(LatencyHistogram other) {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.addAndGet(i, other.buckets.get(i));
+        }
+        count.addAndGet(other.count.get());
+        sumNanos.addAndGet(other.sumNanos.get());
+        maxNanos.accumulateAndGet(other.maxNanos.get(), Math::max);
+    }
+
+    public long getCount() { return count.get(); }
+    public double getMaxMillis() { return maxNanos.get() / 1e6; }
+
+    public double getMeanMillis() {
+        long n = count.get();
+        return n > 0 ? sumNanos.get() / 1e6 / n : 0;
+    }
+
+    /** Samples that took longer than {@code millis}, which should be one of the bucket bounds. */
+    public long countAbove(double millis) {
+        long above = 0;
+        for (int i = buckets.length() - 1; i > 0 && BOUNDS_MILLIS[i - 1] >= millis; i--) {
+            above += buckets.get(i);
+        }
+        return above;
+    }
+
+    /**
+     * The {@code quantile} (e.g. 0.99) as the upper bound of the bucket it falls
+     * in; the maximum if that is the open-ended last bucket.
+     */
+    public double quantileMillis(double quantile) {
+        long n = count.get();
+        if (n == 0) return 0;
+        long rank = (long) Math.ceil(quantile * n);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) return Math.min(BOUNDS_MILLIS[i], getMaxMillis());
+        }
+        return getMaxMillis();
+    }
+
+    /** Appends the {@code _bucket}, {@code _sum} and {@code _count} lines; {@code labels} may be empty. */
+    void writePrometheus(StringBuilder out, String name, String labels) {
+        String prefix = labels.isEmpty() ? "{" : "{" + labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+            cumulative += buckets.get(i);
+            out.append(name).append("_bucket").append(prefix).append("le=\"")
+                    .append(String.format(Locale.ROOT, "%.3f", BOUNDS_MILLIS[i] / 1000)).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+        cumulative += buckets.get(BOUNDS_MILLIS.length);
+        out.append(name).append("_bucket").append(prefix).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+        String plain = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(plain).append(' ')
+                .append(String.format(Locale.ROOT, "%.6f", sumNanos.get() / 1e9)).append('\n');
+        out.append(name).append("_count").append(plain).append(' ').append(cumulative).append('\n');
+    }
+}
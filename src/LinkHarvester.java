@@ -0,0 +1,367 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds downloadable files linked from a web page. The page is streamed and
+ * scanned tag by tag as it arrives, so it is never held in memory as a whole.
+ * Links whose extension is one of {@link #setExtensions extensions} are
+ * checked with a HEAD request; with {@link #setMimeTypes MIME types} set, other
+ * links are checked too and kept if the server says they are such a type.
+ * At most {@link #setMaxProbes maxProbes} checks run at once, while the page
+ * is still being read. The checks go through {@link RemoteInfoCache}, so the
+ * downloads started from the result do not have to probe again.
+ * <p>
+ * With a depth above 0, pages linked from the page (on the same host by
+ * default) are harvested as well, breadth first, each URL at most once.
+ */
+public class LinkHarvester {
+
+    public static final Set<String> DEFAULT_EXTENSIONS = Set.of(
+            "mp3", "m4a", "aac", "ogg", "oga", "opus", "wav", "flac",
+            "mp4", "m4v", "3gp", "webm", "mkv", "avi", "mov");
+    public static final int DEFAULT_MAX_PROBES = 8;
+    public static final int DEFAULT_MAX_PAGES = 50;
+    public static final int MAX_PAGE_CHARS = 5 * 1024 * 1024;
+
+    // Paths that may be a page worth following; anything else with an extension is not
+    private static final Set<String> PAGE_EXTENSIONS = Set.of(
+            "", "html", "htm", "xhtml", "shtml", "php", "asp", "aspx", "jsp", "cgi");
+
+    /** A file found on a page, with what its HEAD request said about it. */
+    public static final class Link {
+        private final String url;
+        private final String page;
+        private final long size;
+        private final String contentType;
+
+        Link(String url, String page, long size, String contentType) {
+            this.url = url;
+            this.page = page;
+            this.size = size;
+            this.contentType = contentType;
+        }
+
+        public String getUrl() { return url; }
+        /** Page the link was found on. */
+        public String getPage() { return page; }
+        /** Size in bytes, -1 if the server did not say. */
+        public long getSize() { return size; }
+        public String getContentType() { return contentType; }
+    }
+
+    /** Progress of a harvest. Called from the harvesting threads. */
+    public interface Listener {
+        default void pageStarted(String url, int depth) {}
+        default void pageFailed(String url, Exception error) {}
+        default void linkFound(Link link) {}
+    }
+
+    private Set<String> extensions = DEFAULT_EXTENSIONS;
+    private List<String> mimeTypes = List.of();
+    private int maxDepth = 0;
+    private int maxProbes = DEFAULT_MAX_PROBES;
+    private int maxPages = DEFAULT_MAX_PAGES;
+    private boolean sameHostOnly = true;
+    private volatile boolean cancelled = false;
+    private volatile ExecutorService probes;
+
+    /** File extensions to collect, without the dot; case does not matter. */
+    public void setExtensions(Set<String> extensions) {
+        Set<String> lower = new LinkedHashSet<>();
+        for (String extension : extensions) lower.add(extension.toLowerCase(Locale.ROOT));
+        this.extensions = lower;
+    }
+
+    /** Content types to collect, e.g. "audio/" for every audio type or "video/mp4" for one. */
+    public void setMimeTypes(List<String> mimeTypes) {
+        List<String> lower = new ArrayList<>();
+        for (String type : mimeTypes) lower.add(type.toLowerCase(Locale.ROOT));
+        this.mimeTypes = lower;
+    }
+
+    /** How many links away from the first page to follow; 0 harvests only that page. */
+    public void setMaxDepth(int maxDepth) { this.maxDepth = Math.max(0, maxDepth); }
+    public void setMaxProbes(int maxProbes) { this.maxProbes = Math.max(1, maxProbes); }
+    public void setMaxPages(int maxPages) { this.maxPages = Math.max(1, maxPages); }
+    public void setSameHostOnly(boolean sameHostOnly) { this.sameHostOnly = sameHostOnly; }
+
+    /** Comma or space separated list such as "mp3, 3gp" or "audio/,video/mp4". */
+    public static List<String> parseList(String list) {
+        List<String> items = new ArrayList<>();
+        for (String item : list.split("[,\\s]+")) {
+            item = item.trim();
+            if (item.startsWith(".")) item = item.substring(1);
+            if (!item.isEmpty()) items.add(item);
+        }
+        return items;
+    }
+
+    /**
+     * Harvests {@code pageUrl} and, up to the configured depth, the pages it
+     * links to. Returns the files found, in the order their links appeared.
+     * Only a failure to load the first page is thrown; pages further down are
+     * reported to the listener and skipped.
+     */
+    public List<Link> harvest(String pageUrl, Listener listener) throws Exception {
+        cancelled = false;
+        Set<String> visited = ConcurrentHashMap.newKeySet();
+        String host = DownloadScheduler.hostOf(pageUrl);
+        Semaphore permits = new Semaphore(maxProbes);
+        List<Future<Link>> found = new ArrayList<>();
+        probes = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("harvest-", 1).factory());
+
+        try {
+            visited.add(withoutFragment(pageUrl));
+            List<String> level = List.of(pageUrl);
+            int pages = 0;
+            for (int depth = 0; !level.isEmpty() && !cancelled; depth++) {
+                boolean follow = depth < maxDepth;
+                List<String> next = Collections.synchronizedList(new ArrayList<>());
+                List<Future<Link>> levelProbes = new ArrayList<>();
+                for (String page : level) {
+                    if (cancelled || pages >= maxPages) break;
+                    pages++;
+                    listener.pageStarted(page, depth);
+                    Consumer<String> onLink = link -> {
+                        if (!visited.add(link)) return;
+                        String extension = extensionOf(link);
+                        boolean media = extensions.contains(extension);
+                        boolean followable = follow && PAGE_EXTENSIONS.contains(extension)
+                                && (!sameHostOnly || host.equals(DownloadScheduler.hostOf(link)));
+                        boolean maybeMedia = !mimeTypes.isEmpty() && !media;
+                        if (!media && !followable && !maybeMedia) return;
+                        try {
+                            levelProbes.add(probes.submit(() -> check(link, page, media, followable, permits, next, listener)));
+                        } catch (RejectedExecutionException e) {
+                            // Cancelled while the page was still being read
+                        }
+                    };
+                    try {
+                        LinkExtractor extractor = new LinkExtractor(page, onLink);
+                        WebUtils.streamWebsiteSource(page, MAX_PAGE_CHARS, text -> extractor.onChunk(text) && !cancelled);
+                        extractor.finish();
+                    } catch (Exception e) {
+                        if (depth == 0) throw e;
+                        listener.pageFailed(page, e);
+                    }
+                }
+                // The next level is only known once every check of this one has answered
+                for (Future<Link> probe : levelProbes) {
+                    try {
+                        probe.get();
+                    } catch (ExecutionException | CancellationException ignored) {
+                        // Only interrupted checks end up here, a failed request makes check() return null
+                    }
+                }
+                found.addAll(levelProbes);
+                synchronized (next) {
+                    level = new ArrayList<>(next);
+                }
+            }
+
+            List<Link> links = new ArrayList<>();
+            for (Future<Link> probe : found) {
+                Link link = probe.state() == Future.State.SUCCESS ? probe.resultNow() : null;
+                if (link != null) links.add(link);
+            }
+            return links;
+        } finally {
+            probes.shutdownNow();
+        }
+    }
+
+    /** Stops reading pages and abandons the checks still waiting; harvest() returns what it has. */
+    public void cancel() {
+        cancelled = true;
+        ExecutorService running = probes;
+        if (running != null) running.shutdownNow();
+    }
+
+    /**
+     * HEAD request for one link: a file is returned as a {@link Link}, a page to
+     * follow goes into {@code next}. Returns null for anything else.
+     */
+    private Link check(String url, String page, boolean media, boolean followable, Semaphore permits,
+                       List<String> next, Listener listener) throws InterruptedException {
+        RemoteFileInfo info;
+        permits.acquire();
+        try {
+            info = RemoteInfoCache.shared().probe(url);
+        } catch (HttpStatusException e) {
+            // A media link whose server refuses HEAD may still download; a missing one will not
+            if (!media || e.getStatusCode() == 404 || e.getStatusCode() == 410) return null;
+            info = null;
+        } catch (IOException e) {
+            return null; // No server to download it from
+        } finally {
+            permits.release();
+        }
+        if (cancelled) return null;
+
+        String type = info != null ? mediaTypeOf(info.getContentType()) : "";
+        boolean html = type.equals("text/html") || type.equals("application/xhtml+xml");
+        if ((media && !html) || (!type.isEmpty() && matchesMimeType(type))) {
+            Link link = new Link(url, page, info != null ? info.getSize() : -1, type.isEmpty() ? null : type);
+            listener.linkFound(link);
+            return link;
+        }
+        if (followable && html) next.add(url);
+        return null;
+    }
+
+    private boolean matchesMimeType(String type) {
+        for (String wanted : mimeTypes) {
+            if (wanted.endsWith("/") ? type.startsWith(wanted) : type.equals(wanted)) return true;
+        }
+        return false;
+    }
+
+    /** "audio/mpeg" from "audio/mpeg; charset=..." in lower case, "" if none. */
+    private static String mediaTypeOf(String contentType) {
+        if (contentType == null) return "";
+        int semicolon = contentType.indexOf(';');
+        return (semicolon >= 0 ? contentType.substring(0, semicolon) : contentType).trim().toLowerCase(Locale.ROOT);
+    }
+
+    /** Extension of the last path segment in lower case, "" if it has none. */
+    static String extensionOf(String url) {
+        String path;
+        try {
+            path = URI.create(url).getPath();
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+        if (path == null) return "";
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(dot + 1).toLowerCase(Locale.ROOT) : "";
+    }
+
+    private static String withoutFragment(String url) {
+        int hash = url.indexOf('#');
+        return hash >= 0 ? url.substring(0, hash) : url;
+    }
+
+    /**
+     * Pulls link targets out of HTML fed to it in arbitrary chunks. Only an
+     * unfinished tag at the end of a chunk is kept for the next one. Targets
+     * are resolved against the page (or its {@code <base href>}) and handed
+     * on as absolute http(s) URLs without fragment.
+     */
+    static class LinkExtractor {
+
+        // A "tag" longer than this is not one we can use, most likely a stray '<' in a script
+        private static final int MAX_TAG_CHARS = 16 * 1024;
+        private static final Pattern ATTRIBUTE = Pattern.compile(
+                "(?i)(?:^|\\s)(href|src|data-src)\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s\"'>]+))");
+
+        private final StringBuilder pending = new StringBuilder();
+        private final Consumer<String> onLink;
+        private URI base;
+
+        LinkExtractor(String pageUrl, Consumer<String> onLink) throws URISyntaxException {
+            this.base = new URI(pageUrl);
+            this.onLink = onLink;
+        }
+
+        boolean onChunk(String text) {
+            pending.append(text);
+            int done = 0;
+            while (true) {
+                int open = pending.indexOf("<", done);
+                if (open < 0) {
+                    done = pending.length();
+                    break;
+                }
+                if (pending.length() - open < 4) {
+                    done = open;
+                    break;
+                }
+                int end;
+                if (pending.charAt(open + 1) == '!' && pending.charAt(open + 2) == '-' && pending.charAt(open + 3) == '-') {
+                    // Skip comments whole, commented-out markup is not a link
+                    end = pending.indexOf("-->", open + 4);
+                    if (end >= 0) end += 2;
+                } else {
+                    end = pending.indexOf(">", open);
+                    if (end >= 0) tag(pending.substring(open + 1, end));
+                }
+                if (end < 0) {
+                    done = open;
+                    break;
+                }
+                done = end + 1;
+            }
+            pending.delete(0, done);
+            if (pending.length() > MAX_TAG_CHARS) pending.setLength(0);
+            return true;
+        }
+
+        /** Handles a last tag the page ended in without closing it. */
+        void finish() {
+            if (pending.length() > 1) tag(pending.substring(1));
+            pending.setLength(0);
+        }
+
+        private void tag(String tag) {
+            if (tag.isEmpty() || tag.charAt(0) == '/' || tag.charAt(0) == '!' || tag.charAt(0) == '?') return;
+            int nameEnd = 0;
+            while (nameEnd < tag.length() && !Character.isWhitespace(tag.charAt(nameEnd))) nameEnd++;
+            String name = tag.substring(0, nameEnd).toLowerCase(Locale.ROOT);
+            Matcher matcher = ATTRIBUTE.matcher(tag);
+            matcher.region(nameEnd, tag.length());
+            while (matcher.find()) {
+                String value = matcher.group(2) != null ? matcher.group(2)
+                        : matcher.group(3) != null ? matcher.group(3) : matcher.group(4);
+                URI resolved = resolve(value);
+                if (resolved == null) continue;
+                if (name.equals("base")) {
+                    base = resolved;
+                } else {
+                    onLink.accept(withoutFragment(resolved.toString()));
+                }
+            }
+        }
+
+        private URI resolve(String value) {
+            String link = unescapeEntities(value.trim());
+            String lower = link.toLowerCase(Locale.ROOT);
+            if (link.isEmpty() || link.startsWith("#") || lower.startsWith("javascript:")
+                    || lower.startsWith("mailto:") || lower.startsWith("data:")) {
+                return null;
+            }
+            try {
+                URI uri = base.resolve(new URI(link.replace(" ", "%20")));
+                String scheme = uri.getScheme();
+                if (scheme == null || !(scheme.equalsIgnoreCase("http") || scheme.equalsIgnoreCase("https"))) return null;
+                return uri;
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                return null; // Not a URL we could request anyway
+            }
+        }
+
+        private static String unescapeEntities(String s) {
+            if (s.indexOf('&') < 0) return s;
+            return s.replace("&amp;", "&").replace("&#38;", "&").replace("&quot;", "\"")
+                    .replace("&#39;", "'").replace("&apos;", "'").replace("&lt;", "<").replace("&gt;", ">");
+        }
+    }
+}
@@ -1,15 +1,581 @@
-//TIP To <b>Run</b> code, press <shortcut actionId="Run"/> or
-// click the <icon src="AllIcons.Actions.Execute"/> icon in the gutter.
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless batch mode: downloads a list of URLs without opening the GUI, using
+ * the same {@link Downloader} and {@link DownloadScheduler} the GUI does.
+ * Progress goes to stdout as plain lines or, with --json, one JSON object per line.
+ */
 public class Main {
+
+    static final int EXIT_OK = 0;
+    static final int EXIT_FAILED = 1;
+    static final int EXIT_USAGE = 2;
+    static final int EXIT_INTERRUPTED = 130;
+
+    private static final String USAGE = """
+            Usage: java Main [options] [URL...]
+              -i, --input FILE            read URLs from FILE, one download per line ("-" = stdin)
+              -o, --output DIR            save files into DIR (default: current directory)
+              -c, --concurrency N         downloads running at once (default %d)
+                  --per-host N            downloads running at once per host (default %d)
+                  --segments N            connections a download starts with (default %d)
+                  --max-connections N     connections a download may grow to (default %d)
+                  --limit RATE            global speed limit, e.g. 500K or 2M (bytes/s)
+                  --limit-per-download RATE
+                  --limit-host HOST=RATE  speed limit for one host, may be repeated
+                  --retries N             retries in a row without progress before giving up (default %d)
+                  --connect-timeout S     seconds to wait for a connection (default %d)
+                  --read-timeout S        seconds a read may wait for data (default %d)
+                  --sha256                hash every file and print its checksum
+                  --sync                  only fetch files that changed since the last sync, replacing them
+                  --harvest               treat the URLs as pages and download the media they link to
+                  --depth N               with --harvest, follow links N pages deep on the same host (default 0)
+                  --ext LIST              with --harvest, extensions to collect (default: common audio/video)
+                  --mime LIST             with --harvest, also collect links of these types, e.g. audio/,video/mp4
+                  --probes N              with --harvest, links checked at once (default %d)
+                  --stream                fetch files front to back and serve each to a media player
+                                              at a local URL while it downloads
+                  --stream-port PORT      port for --stream (default: any free port on 127.0.0.1)
+                  --json                  print progress as JSON lines
+                  --metrics-port PORT     serve Prometheus metrics on 127.0.0.1:PORT/metrics
+                  --interval MS           progress update interval (default 1000)
+              -h, --help                  show this help
+            Without URLs or --input the list is read from stdin. A line with several
+            URLs is one file: the first URL names it, the others are mirrors of it.
+            Exit status: 0 all downloads finished, 1 some failed, 2 bad usage, 130 interrupted.
+            """.formatted(DownloadScheduler.DEFAULT_MAX_CONCURRENT, DownloadScheduler.DEFAULT_MAX_PER_HOST,
+            Downloader.DEFAULT_SEGMENTS, SegmentPlanner.DEFAULT_MAX_CONNECTIONS, RetryPolicy.DEFAULT_MAX_RETRIES,
+            HttpClients.getConnectTimeout().toSeconds(), StallWatchdog.DEFAULT_READ_TIMEOUT_SECONDS,
+            LinkHarvester.DEFAULT_MAX_PROBES);
+
     public static void main(String[] args) {
-        //TIP Press <shortcut actionId="ShowIntentionActions"/> with your caret at the highlighted text
-        // to see how IntelliJ IDEA suggests fixing it.
-        System.out.printf("Hello and welcome!");
+        System.exit(run(args));
+    }
+
+    static int run(String[] args) {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            return EXIT_USAGE;
+        }
+        if (options.help) {
+            System.out.print(USAGE);
+            return EXIT_OK;
+        }
+
+        List<String> urls;
+        try {
+            urls = options.readUrls();
+            Files.createDirectories(options.outputDirectory);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return EXIT_USAGE;
+        }
+        if (urls.isEmpty()) {
+            System.err.println("No URLs to download");
+            return EXIT_USAGE;
+        }
+        if (options.connectTimeout > 0) {
+            HttpClients.configure(Duration.ofSeconds(options.connectTimeout));
+        }
+        if (options.readTimeout > 0) {
+            StallWatchdog.shared().configure(options.readTimeout, StallWatchdog.DEFAULT_MIN_RATE,
+                    StallWatchdog.DEFAULT_STALL_SECONDS);
+        }
+        if (options.metricsPort > 0) {
+            try {
+                MetricsServer.start(options.metricsPort);
+            } catch (IOException e) {
+                System.err.println("Could not serve metrics on port " + options.metricsPort + ": " + e.getMessage());
+                return EXIT_USAGE;
+            }
+        } else {
+            MetricsServer.startIfConfigured();
+        }
+        if (options.stream) {
+            try {
+                StreamServer.start(options.streamPort);
+            } catch (IOException e) {
+                System.err.println("Could not serve streams on port " + options.streamPort + ": " + e.getMessage());
+                return EXIT_USAGE;
+            }
+        }
+        try {
+            if (options.harvest) {
+                urls = harvest(options, urls);
+                if (urls.isEmpty()) {
+                    System.err.println("No matching links found");
+                    return EXIT_FAILED;
+                }
+            }
+            return new BatchRun(options, urls).run();
+        } finally {
+            MetricsServer.stop();
+            StreamServer.stop();
+        }
+    }
+
+    /** Replaces the page URLs with the files linked from them, each once. */
+    static List<String> harvest(Options options, List<String> pages) {
+        PrintStream out = System.out;
+        LinkHarvester harvester = new LinkHarvester();
+        if (options.extensions != null) harvester.setExtensions(new LinkedHashSet<>(LinkHarvester.parseList(options.extensions)));
+        if (options.mimeTypes != null) harvester.setMimeTypes(LinkHarvester.parseList(options.mimeTypes));
+        harvester.setMaxDepth(options.depth);
+        harvester.setMaxProbes(options.probes);
+
+        Set<String> files = new LinkedHashSet<>();
+        for (String line : pages) {
+            // A mirror list makes no sense for a page, only its first URL is harvested
+            String page = line.split("\\s+")[0];
+            try {
+                List<LinkHarvester.Link> links = harvester.harvest(page, new LinkHarvester.Listener() {
+                    @Override
+                    public void pageStarted(String url, int depth) {
+                        if (options.json) {
+                            out.println("{\"event\":\"page\",\"url\":" + quote(url) + ",\"depth\":" + depth + "}");
+                        } else {
+                            out.println("Harvest: " + url);
+                        }
+                    }
+
+                    @Override
+                    public void pageFailed(String url, Exception error) {
+                        System.err.println("Harvest: " + url + ": Error: " + Downloader.describe(error));
+                    }
+                });
+                for (LinkHarvester.Link link : links) {
+                    if (!files.add(link.getUrl())) continue;
+                    if (options.json) {
+                        out.println("{\"event\":\"link\",\"url\":" + quote(link.getUrl()) + ",\"page\":" + quote(link.getPage())
+                                + ",\"size\":" + link.getSize()
+                                + (link.getContentType() != null ? ",\"type\":" + quote(link.getContentType()) : "") + "}");
+                    } else {
+                        out.println("Found: " + link.getUrl() + (link.getSize() >= 0 ? " (" + formatBytes(link.getSize()) + ")" : ""));
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                System.err.println("Harvest: " + page + ": Error: " + Downloader.describe(e));
+            }
+        }
+        return new ArrayList<>(files);
+    }
+
+    /** Command line settings. */
+    static class Options {
+        final List<String> urls = new ArrayList<>();
+        final Map<String, Long> hostLimits = new LinkedHashMap<>();
+        String input;
+        Path outputDirectory = Path.of("");
+        int concurrency = DownloadScheduler.DEFAULT_MAX_CONCURRENT;
+        int perHost = DownloadScheduler.DEFAULT_MAX_PER_HOST;
+        int segments = Downloader.DEFAULT_SEGMENTS;
+        int maxConnections = SegmentPlanner.DEFAULT_MAX_CONNECTIONS;
+        long globalLimit = RateLimiter.UNLIMITED;
+        long downloadLimit = RateLimiter.UNLIMITED;
+        int retries = RetryPolicy.DEFAULT_MAX_RETRIES;
+        int connectTimeout = 0;
+        int readTimeout = 0;
+        int metricsPort = 0;
+        boolean harvest;
+        int depth = 0;
+        int probes = LinkHarvester.DEFAULT_MAX_PROBES;
+        String extensions;
+        String mimeTypes;
+        boolean sha256;
+        boolean sync;
+        boolean stream;
+        int streamPort = 0;
+        boolean json;
+        long intervalMillis = 1000;
+        boolean help;
+
+        static Options parse(String[] args) {
+            Options o = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                switch (arg) {
+                    case "-h", "--help" -> o.help = true;
+                    case "-i", "--input" -> o.input = value(args, ++i, arg);
+                    case "-o", "--output" -> o.outputDirectory = Path.of(value(args, ++i, arg));
+                    case "-c", "--concurrency" -> o.concurrency = positive(value(args, ++i, arg), arg);
+                    case "--per-host" -> o.perHost = positive(value(args, ++i, arg), arg);
+                    case "--segments" -> o.segments = positive(value(args, ++i, arg), arg);
+                    case "--max-connections" -> o.maxConnections = positive(value(args, ++i, arg), arg);
+                    case "--limit" -> o.globalLimit = parseRate(value(args, ++i, arg));
+                    case "--limit-per-download" -> o.downloadLimit = parseRate(value(args, ++i, arg));
+                    case "--limit-host" -> {
+                        String spec = value(args, ++i, arg);
+                        int eq = spec.indexOf('=');
+                        if (eq <= 0) throw new IllegalArgumentException("Expected HOST=RATE, got " + spec);
+                        o.hostLimits.put(spec.substring(0, eq).toLowerCase(), parseRate(spec.substring(eq + 1)));
+                    }
+                    case "--retries" -> o.retries = nonNegative(value(args, ++i, arg), arg);
+                    case "--connect-timeout" -> o.connectTimeout = positive(value(args, ++i, arg), arg);
+                    case "--read-timeout" -> o.readTimeout = positive(value(args, ++i, arg), arg);
+                    case "--sha256" -> o.sha256 = true;
+                    case "--sync" -> o.sync = true;
+                    case "--harvest" -> o.harvest = true;
+                    case "--depth" -> o.depth = nonNegative(value(args, ++i, arg), arg);
+                    case "--ext" -> o.extensions = value(args, ++i, arg);
+                    case "--mime" -> o.mimeTypes = value(args, ++i, arg);
+                    case "--probes" -> o.probes = positive(value(args, ++i, arg), arg);
+                    case "--stream" -> o.stream = true;
+                    case "--stream-port" -> {
+                        o.streamPort = positive(value(args, ++i, arg), arg);
+                        o.stream = true;
+                    }
+                    case "--json" -> o.json = true;
+                    case "--metrics-port" -> o.metricsPort = positive(value(args, ++i, arg), arg);
+                    case "--interval" -> o.intervalMillis = positive(value(args, ++i, arg), arg);
+                    default -> {
+                        if (arg.startsWith("-") && !arg.equals("-")) {
+                            throw new IllegalArgumentException("Unknown option " + arg);
+                        }
+                        o.urls.add(arg);
+                    }
+                }
+            }
+            return o;
+        }
+
+        /**
+         * Downloads from the command line plus the input list, without blanks,
+         * comments or repeats. Each entry is a URL, possibly followed by mirrors.
+         */
+        List<String> readUrls() throws IOException {
+            Set<String> all = new LinkedHashSet<>();
+            for (String url : urls) {
+                if (url.equals("-")) {
+                    addLines(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)), all);
+                } else {
+                    all.add(url);
+                }
+            }
+            if (input != null && !input.equals("-")) {
+                try (BufferedReader reader = Files.newBufferedReader(Path.of(input), StandardCharsets.UTF_8)) {
+                    addLines(reader, all);
+                }
+            } else if (input != null || urls.isEmpty()) {
+                addLines(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)), all);
+            }
+            return new ArrayList<>(all);
+        }
+
+        private static void addLines(BufferedReader reader, Set<String> into) throws IOException {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) into.add(line);
+            }
+        }
+
+        private static String value(String[] args, int i, String option) {
+            if (i >= args.length) throw new IllegalArgumentException(option + " needs a value");
+            return args[i];
+        }
 
-        for (int i = 1; i <= 5; i++) {
-            //TIP Press <shortcut actionId="Debug"/> to start debugging your code. We have set one <icon src="AllIcons.Debugger.Db_set_breakpoint"/> breakpoint
-            // for you, but you can always add more by pressing <shortcut actionId="ToggleLineBreakpoint"/>.
-            System.out.println("i = " + i);
+        private static int positive(String value, String option) {
+            try {
+                int n = Integer.parseInt(value);
+                if (n > 0) return n;
+            } catch (NumberFormatException ignored) {
+            }
+            throw new IllegalArgumentException(option + " expects a positive number, got " + value);
         }
+
+        private static int nonNegative(String value, String option) {
+            try {
+                int n = Integer.parseInt(value);
+                if (n >= 0) return n;
+            } catch (NumberFormatException ignored) {
+            }
+            throw new IllegalArgumentException(option + " expects a number of 0 or more, got " + value);
+        }
+
+        /** Bytes per second from "750", "500K", "1.5M" or "1G"; 0 means unlimited. */
+        static long parseRate(String value) {
+            String s = value.trim().toUpperCase(Locale.ROOT);
+            if (s.endsWith("B/S")) s = s.substring(0, s.length() - 3);
+            else if (s.endsWith("/S")) s = s.substring(0, s.length() - 2);
+            long unit = 1;
+            if (!s.isEmpty()) {
+                switch (s.charAt(s.length() - 1)) {
+                    case 'K' -> unit = 1024;
+                    case 'M' -> unit = 1024 * 1024;
+                    case 'G' -> unit = 1024 * 1024 * 1024;
+                    default -> unit = 0;
+                }
+                if (unit != 0) s = s.substring(0, s.length() - 1);
+                else unit = 1;
+            }
+            try {
+                double rate = Double.parseDouble(s);
+                if (rate >= 0) return (long) (rate * unit);
+            } catch (NumberFormatException ignored) {
+            }
+            throw new IllegalArgumentException("Bad rate " + value + ", expected e.g. 500K or 2M");
+        }
+    }
+
+    /** One batch of downloads and the progress printer that watches them. */
+    private static class BatchRun {
+        private final Options options;
+        private final List<String> urls;
+        private final PrintStream out = System.out;
+        private final CountDownLatch done;
+        private final AtomicInteger succeeded = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicInteger cancelled = new AtomicInteger();
+        private final AtomicInteger retries = new AtomicInteger();
+        private final AtomicInteger unchanged = new AtomicInteger();
+        private final AtomicLong bytesSaved = new AtomicLong();
+        private final List<Downloader> downloaders = new ArrayList<>();
+
+        BatchRun(Options options, List<String> urls) {
+            this.options = options;
+            this.urls = urls;
+            this.done = new CountDownLatch(urls.size());
+        }
+
+        int run() {
+            BandwidthLimits limits = BandwidthLimits.shared();
+            limits.setGlobalRate(options.globalLimit);
+            options.hostLimits.forEach(limits::setHostRate);
+
+            DownloadScheduler scheduler = new DownloadScheduler(options.concurrency, options.perHost);
+            for (int i = 0; i < urls.size(); i++) {
+                String[] mirrors = urls.get(i).split("\\s+");
+                Downloader downloader = new Downloader(mirrors[0], -1, options.segments);
+                for (int m = 1; m < mirrors.length; m++) downloader.addMirror(mirrors[m]);
+                downloader.setOutputDirectory(options.outputDirectory);
+                downloader.setMaxConnections(Math.max(options.segments, options.maxConnections));
+                downloader.setRateLimit(options.downloadLimit);
+                downloader.setRetryPolicy(new RetryPolicy(options.retries, RetryPolicy.DEFAULT_BASE_DELAY_MILLIS,
+                        RetryPolicy.DEFAULT_MAX_DELAY_MILLIS));
+                if (options.sha256) downloader.setHashAlgorithm(ContentHasher.SHA_256);
+                downloader.setSync(options.sync);
+                downloader.setStreaming(options.stream);
+                downloader.addListener(new Reporter(i + 1));
+                downloaders.add(downloader);
+            }
+            if (options.stream) {
+                for (int i = 0; i < downloaders.size(); i++) {
+                    Downloader d = downloaders.get(i);
+                    String streamUrl;
+                    try {
+                        streamUrl = StreamServer.publish(d);
+                    } catch (IOException e) {
+                        System.err.println("Could not serve " + d.getUrl() + ": " + e.getMessage());
+                        continue;
+                    }
+                    if (options.json) {
+                        out.println("{\"event\":\"stream\",\"url\":" + quote(d.getUrl())
+                                + ",\"stream_url\":" + quote(streamUrl) + "}");
+                    } else {
+                        out.println("[" + (i + 1) + "/" + urls.size() + "] Stream: " + streamUrl);
+                    }
+                }
+            }
+
+            // Ctrl-C: stop the transfers cleanly so their resume journals get written
+            Thread hook = new Thread(() -> {
+                downloaders.forEach(Downloader::cancel);
+                try {
+                    done.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                }
+            });
+            Runtime.getRuntime().addShutdownHook(hook);
+
+            long started = System.nanoTime();
+            downloaders.forEach(d -> scheduler.submit(d.getUrl(), d));
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                downloaders.forEach(Downloader::cancel);
+                return EXIT_INTERRUPTED;
+            }
+            double seconds = (System.nanoTime() - started) / 1e9;
+
+            if (options.json) {
+                out.println("{\"event\":\"summary\",\"succeeded\":" + succeeded + ",\"failed\":" + failed
+                        + ",\"cancelled\":" + cancelled + ",\"retries\":" + retries
+                        + (options.sync ? ",\"unchanged\":" + unchanged + ",\"bytes_saved\":" + bytesSaved : "")
+                        + ",\"seconds\":" + String.format(Locale.ROOT, "%.3f", seconds) + "}");
+            } else {
+                out.printf("Done: %d succeeded%s, %d failed, %d cancelled, %d retries in %.1f s%n",
+                        succeeded.get(),
+                        options.sync ? " (" + unchanged.get() + " unchanged, " + formatBytes(bytesSaved.get()) + " saved)" : "",
+                        failed.get(), cancelled.get(), retries.get(), seconds);
+            }
+            try {
+                Runtime.getRuntime().removeShutdownHook(hook);
+            } catch (IllegalStateException ignored) {
+                // Already shutting down
+            }
+            if (cancelled.get() > 0) return EXIT_INTERRUPTED;
+            return failed.get() > 0 ? EXIT_FAILED : EXIT_OK;
+        }
+
+        /** Prints one download's events; progress is throttled to the configured interval. */
+        private class Reporter implements DownloadListener {
+            private final String tag;
+            private final long intervalNanos = TimeUnit.MILLISECONDS.toNanos(options.intervalMillis);
+            private long lastPrintNanos;
+
+            Reporter(int index) {
+                this.tag = "[" + index + "/" + urls.size() + "]";
+            }
+
+            @Override
+            public void statusChanged(Downloader d, String status) {
+                if (options.json) {
+                    print(d, "status", ",\"message\":" + quote(status));
+                } else {
+                    out.println(tag + " " + name(d) + ": " + status);
+                }
+            }
+
+            @Override
+            public void progressChanged(Downloader d, long bytesDone, long totalBytes) {
+                long now = System.nanoTime();
+                if (now - lastPrintNanos < intervalNanos) return;
+                lastPrintNanos = now;
+                DownloadMetrics metrics = d.getMetrics();
+                long speed = (long) metrics.getAverageSpeed();
+                long eta = metrics.getEtaSeconds();
+                if (options.json) {
+                    print(d, "progress", ",\"bytes\":" + bytesDone + ",\"total\":" + totalBytes + ",\"speed\":" + speed
+                            + ",\"eta\":" + eta);
+                } else if (totalBytes > 0) {
+                    out.printf("%s %s: %3d%% %s / %s, %s/s%s%n", tag, name(d), (int) (bytesDone * 100 / totalBytes),
+                            formatBytes(bytesDone), formatBytes(totalBytes), formatBytes(speed),
+                            eta >= 0 ? ", " + eta + " s left" : "");
+                } else {
+                    out.printf("%s %s: %s, %s/s%n", tag, name(d), formatBytes(bytesDone), formatBytes(speed));
+                }
+            }
+
+            @Override
+            public void retrying(Downloader d, int attempt, int maxRetries, long delayMillis, Throwable cause) {
+                retries.incrementAndGet();
+                String message = Downloader.describe(cause);
+                if (options.json) {
+                    print(d, "retry", ",\"attempt\":" + attempt + ",\"max\":" + maxRetries
+                            + ",\"delay_ms\":" + delayMillis + ",\"error\":" + quote(message));
+                } else {
+                    System.err.printf("%s %s: retry %d/%d in %.1f s: %s%n", tag, name(d), attempt, maxRetries,
+                            delayMillis / 1000.0, message);
+                }
+            }
+
+            @Override
+            public void completed(Downloader d) {
+                succeeded.incrementAndGet();
+                if (d.isNotModified()) {
+                    unchanged.incrementAndGet();
+                    bytesSaved.addAndGet(d.getMetrics().getBytesSaved());
+                }
+                String checksum = d.getChecksum();
+                if (options.json) {
+                    DownloadMetrics metrics = d.getMetrics();
+                    print(d, "completed", ",\"path\":" + quote(d.getTargetPath().toString())
+                            + (d.isNotModified() ? ",\"not_modified\":true" : "")
+                            + (checksum != null ? ",\"sha256\":" + quote(checksum) : "")
+                            + ",\"bytes_written\":" + metrics.getBytesWritten()
+                            + ",\"bytes_received\":" + metrics.getBytesReceived()
+                            + ",\"elapsed_ms\":" + metrics.getElapsedMillis()
+                            + ",\"ttfb_ms\":" + metrics.getTimeToFirstByteMillis()
+                            + ",\"requests\":" + metrics.getRequests());
+                } else {
+                    out.println(tag + " " + name(d) + ": " + (d.isNotModified() ? "Tidak berubah" : "Selesai")
+                            + (checksum != null ? " sha256=" + checksum : ""));
+                }
+                done.countDown();
+            }
+
+            @Override
+            public void failed(Downloader d, Throwable error) {
+                failed.incrementAndGet();
+                String message = error.getMessage() != null ? error.getMessage() : error.toString();
+                if (options.json) {
+                    print(d, "failed", ",\"error\":" + quote(message));
+                } else {
+                    System.err.println(tag + " " + name(d) + ": Error: " + message);
+                }
+                done.countDown();
+            }
+
+            @Override
+            public void cancelled(Downloader d) {
+                cancelled.incrementAndGet();
+                if (options.json) {
+                    print(d, "cancelled", "");
+                } else {
+                    out.println(tag + " " + name(d) + ": Dibatalkan");
+                }
+                done.countDown();
+            }
+
+            private void print(Downloader d, String event, String fields) {
+                out.println("{\"event\":\"" + event + "\",\"url\":" + quote(d.getUrl())
+                        + ",\"file\":" + quote(name(d)) + fields + "}");
+            }
+        }
+
+        private static String name(Downloader d) {
+            return d.getTargetPath().getFileName().toString();
+        }
+    }
+
+    static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        int exp = (int) (Math.log(bytes) / Math.log(1024));
+        char pre = "KMGTPE".charAt(exp - 1);
+        return String.format("%.1f %cB", bytes / Math.pow(1024, exp), pre);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,65 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+/**
+ * Finds the index ("moov" box) of an MP4/3GP/MOV file that keeps it after the
+ * media data. A player cannot start such a file until it has the index, so a
+ * stream-friendly download fetches that tail right after the first bytes.
+ * Only the top-level box headers are read, from the part of the file already
+ * on disk.
+ */
+final class MediaIndex {
+
+    /** The file needs nothing fetched early: not a container we know, or its index comes first. */
+    static final long[] NONE = new long[0];
+
+    // Boxes an ISO media or QuickTime file can start with
+    private static final Set<String> FIRST_BOXES = Set.of("ftyp", "moov", "mdat", "free", "skip", "wide", "pnot");
+    private static final int MAX_BOXES = 64;
+
+    private MediaIndex() {}
+
+    /**
+     * The byte range {@code [start, end]} from the end of the media data to the
+     * end of the file when the index lies there, {@link #NONE} if nothing needs
+     * fetching early, or null if the first {@code available} bytes do not tell yet.
+     */
+    static long[] trailingIndex(FileChannel channel, long available, long fileSize) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(16);
+        long position = 0;
+        boolean sawMediaData = false;
+        for (int i = 0; i < MAX_BOXES && position < fileSize; i++) {
+            if (position + 8 > available) {
+                return sawMediaData ? new long[]{position, fileSize - 1} : null;
+            }
+            header.clear().limit(8);
+            readFully(channel, header, position);
+            long size = header.getInt(0) & 0xFFFFFFFFL;
+            String type = new String(header.array(), 4, 4, StandardCharsets.ISO_8859_1);
+            if (i == 0 && !FIRST_BOXES.contains(type)) return NONE;
+            if (size == 1) {
+                // 64-bit size follows the type
+                if (position + 16 > available) return null;
+                header.clear().limit(8);
+                readFully(channel, header, position + 8);
+                size = header.getLong(0);
+            } else if (size == 0) {
+                size = fileSize - position; // Runs to the end of the file
+            }
+            if (size < 8) return NONE; // Not a box structure after all
+            if (type.equals("moov")) return NONE;
+            if (type.equals("mdat")) sawMediaData = true;
+            position += size;
+        }
+        return NONE;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new IOException("Unexpected end of file");
+        }
+    }
+}
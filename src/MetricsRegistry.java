@@ -0,0 +1,236 @@
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Keeps the metrics of every running download, samples their rates once a
+ * second and adds them up for the whole process. Each running download is an
+ * MBean under {@code twiby:type=Download}, the totals are {@code twiby:type=Downloads};
+ * {@link #writePrometheus} renders the same numbers for {@link MetricsServer}.
+ */
+public final class MetricsRegistry implements MetricsRegistryMXBean {
+
+    private static final MetricsRegistry SHARED = new MetricsRegistry();
+    private static final double SMOOTHING = 0.2;
+
+    private final Map<DownloadMetrics, ObjectName> active = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    // Bytes and retries of downloads that already left the registry
+    private final AtomicLong finishedBytes = new AtomicLong();
+    private final AtomicLong finishedBytesReceived = new AtomicLong();
+    private final AtomicLong finishedRetries = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("metrics").daemon().factory());
+    private final MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+    private ScheduledFuture<?> ticking;
+    private long lastTickNanos;
+    private volatile double speed = 0;
+    private volatile double averageSpeed = 0;
+
+    private MetricsRegistry() {
+        register(this, "type=Downloads");
+    }
+
+    public static MetricsRegistry shared() {
+        return SHARED;
+    }
+
+    /** Starts tracking a download that just began. */
+    public synchronized void add(DownloadMetrics metrics) {
+        metrics.started();
+        ObjectName name = register(metrics, "type=Download,id=" + ids.incrementAndGet()
+                + ",name=" + ObjectName.quote(metrics.getFileName()));
+        active.put(metrics, name != null ? name : ObjectName.WILDCARD);
+        if (ticking == null) {
+            lastTickNanos = System.nanoTime();
+            ticking = timer.scheduleAtFixedRate(this::tick, 1, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    /** Stops tracking a download and counts how it ended. */
+    public synchronized void remove(DownloadMetrics metrics, DownloadRecord.Status outcome) {
+        ObjectName name = active.remove(metrics);
+        if (name == null) return;
+        metrics.finished();
+        if (name != ObjectName.WILDCARD) {
+            try {
+                mbeans.unregisterMBean(name);
+            } catch (JMException ignored) {
+                // Already gone
+            }
+        }
+        finishedBytes.addAndGet(metrics.getBytesWritten());
+        finishedBytesReceived.addAndGet(metrics.getBytesReceived());
+        finishedRetries.addAndGet(metrics.getRetries());
+        bytesSaved.addAndGet(metrics.getBytesSaved());
+        switch (outcome) {
+            case COMPLETED -> completed.incrementAndGet();
+            case FAILED -> failed.incrementAndGet();
+            case CANCELLED -> cancelled.incrementAndGet();
+            default -> { }
+        }
+        if (active.isEmpty() && ticking != null) {
+            ticking.cancel(false);
+            ticking = null;
+            speed = 0;
+            averageSpeed = 0;
+        }
+    }
+
+    private ObjectName register(Object bean, String properties) {
+        try {
+            ObjectName name = new ObjectName("twiby:" + properties);
+            mbeans.registerMBean(bean, name);
+            return name;
+        } catch (JMException e) {
+            // Monitoring is optional; the download runs the same without it
+            System.err.println("Could not register metrics " + properties + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private synchronized void tick() {
+        long now = System.nanoTime();
+        long interval = now - lastTickNanos;
+        lastTickNanos = now;
+        long bytes = 0;
+        for (DownloadMetrics metrics : active.keySet()) {
+            bytes += metrics.sample(interval);
+        }
+        double rate = bytes * 1e9 / Math.max(1, interval);
+        speed = rate;
+        averageSpeed = averageSpeed > 0 ? averageSpeed + SMOOTHING * (rate - averageSpeed) : rate;
+    }
+
+    @Override
+    public int getActiveDownloads() { return active.size(); }
+
+    @Override
+    public long getCompletedDownloads() { return completed.get(); }
+
+    @Override
+    public long getFailedDownloads() { return failed.get(); }
+
+    @Override
+    public long getCancelledDownloads() { return cancelled.get(); }
+
+    @Override
+    public long getBytesWritten() {
+        long bytes = finishedBytes.get();
+        for (DownloadMetrics metrics : active.keySet()) bytes += metrics.getBytesWritten();
+        return bytes;
+    }
+
+    @Override
+    public long getBytesReceived() {
+        long bytes = finishedBytesReceived.get();
+        for (DownloadMetrics metrics : active.keySet()) bytes += metrics.getBytesReceived();
+        return bytes;
+    }
+
+    @Override
+    public long getBytesSaved() { return bytesSaved.get(); }
+
+    @Override
+    public double getSpeed() { return speed; }
+
+    @Override
+    public double getAverageSpeed() { return averageSpeed; }
+
+    @Override
+    public long getRetries() {
+        long retries = finishedRetries.get();
+        for (DownloadMetrics metrics : active.keySet()) retries += metrics.getRetries();
+        return retries;
+    }
+
+    /** All metrics in the Prometheus text format. */
+    public void writePrometheus(StringBuilder out) {
+        gauge(out, "twiby_downloads_active", "Downloads running right now.", getActiveDownloads());
+        out.append("# HELP twiby_downloads_finished_total Downloads that ended, by outcome.\n")
+                .append("# TYPE twiby_downloads_finished_total counter\n")
+                .append("twiby_downloads_finished_total{outcome=\"completed\"} ").append(getCompletedDownloads()).append('\n')
+                .append("twiby_downloads_finished_total{outcome=\"failed\"} ").append(getFailedDownloads()).append('\n')
+                .append("twiby_downloads_finished_total{outcome=\"cancelled\"} ").append(getCancelledDownloads()).append('\n');
+        counter(out, "twiby_bytes_written_total", "Bytes written to disk by all downloads.", getBytesWritten());
+        counter(out, "twiby_bytes_received_total", "Bytes received over the network, before decompression.",
+                getBytesReceived());
+        counter(out, "twiby_bytes_saved_total", "Bytes not transferred because the server reported no change.",
+                getBytesSaved());
+        counter(out, "twiby_retries_total", "Retries of all downloads.", getRetries());
+        gauge(out, "twiby_speed_bytes", "Combined rate over the last second, bytes/s.", getSpeed());
+        gauge(out, "twiby_speed_average_bytes", "Moving average of the combined rate, bytes/s.", getAverageSpeed());
+
+        perDownload(out, "twiby_download_bytes_written_total", "counter", "Bytes written by one download.",
+                DownloadMetrics::getBytesWritten);
+        perDownload(out, "twiby_download_bytes_received_total", "counter", "Bytes received, before decompression.",
+                DownloadMetrics::getBytesReceived);
+        perDownload(out, "twiby_download_bytes_done", "gauge", "Bytes on disk, including resumed data.",
+                DownloadMetrics::getBytesDone);
+        perDownload(out, "twiby_download_bytes_total", "gauge", "File size, -1 if unknown.",
+                DownloadMetrics::getTotalBytes);
+        perDownload(out, "twiby_download_speed_bytes", "gauge", "Rate over the last second, bytes/s.",
+                DownloadMetrics::getSpeed);
+        perDownload(out, "twiby_download_speed_average_bytes", "gauge", "Moving average of the rate, bytes/s.",
+                DownloadMetrics::getAverageSpeed);
+        perDownload(out, "twiby_download_eta_seconds", "gauge", "Estimated time left, -1 if unknown.",
+                DownloadMetrics::getEtaSeconds);
+        perDownload(out, "twiby_download_ttfb_seconds", "gauge", "Start to first byte written, -1 before it.",
+                m -> m.getTimeToFirstByteMillis() < 0 ? -1 : m.getTimeToFirstByteMillis() / 1000.0);
+        perDownload(out, "twiby_download_response_latency_seconds", "gauge",
+                "Mean time from request to response headers, -1 before the first response.",
+                m -> m.getResponseLatencyMillis() < 0 ? -1 : m.getResponseLatencyMillis() / 1000.0);
+        perDownload(out, "twiby_download_requests_total", "counter", "HTTP requests made.",
+                DownloadMetrics::getRequests);
+        perDownload(out, "twiby_download_retries_total", "counter", "Retries so far.",
+                DownloadMetrics::getRetries);
+    }
+
+    private static void counter(StringBuilder out, String name, String help, double value) {
+        header(out, name, "counter", help);
+        out.append(name).append(' ').append(number(value)).append('\n');
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, double value) {
+        header(out, name, "gauge", help);
+        out.append(name).append(' ').append(number(value)).append('\n');
+    }
+
+    private void perDownload(StringBuilder out, String name, String type, String help,
+                             ToDoubleFunction<DownloadMetrics> value) {
+        header(out, name, type, help);
+        for (DownloadMetrics metrics : active.keySet()) {
+            out.append(name).append("{url=\"").append(label(metrics.getUrl()))
+                    .append("\",file=\"").append(label(metrics.getFileName())).append("\"} ")
+                    .append(number(value.applyAsDouble(metrics))).append('\n');
+        }
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String number(double value) {
+        return value == Math.rint(value) && Math.abs(value) < 1e15
+                ? Long.toString((long) value) : String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String label(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,25 @@
+/** What JMX shows for all downloads of this process together. */
+public interface MetricsRegistryMXBean {
+
+    int getActiveDownloads();
+
+    long getCompletedDownloads();
+
+    long getFailedDownloads();
+
+    long getCancelledDownloads();
+
+    long getBytesWritten();
+
+    long getBytesReceived();
+
+    /** Bytes sync mode did not transfer because the server said they had not changed. */
+    long getBytesSaved();
+
+    /** Rate of all active downloads over the last second, in bytes per second. */
+    double getSpeed();
+
+    double getAverageSpeed();
+
+    long getRetries();
+}
@@ -0,0 +1,58 @@
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves {@link MetricsRegistry}, and in the GUI {@link EdtWatchdog}, at
+ * {@code http://127.0.0.1:PORT/metrics} in the Prometheus text format. Off unless a port is given, e.g. with
+ * {@code -Dtwiby.metrics.port=9464}; it only listens on the loopback address.
+ */
+public final class MetricsServer {
+
+    public static final String PORT_PROPERTY = "twiby.metrics.port";
+
+    private static HttpServer server;
+
+    private MetricsServer() {}
+
+    /** Starts the endpoint if {@value #PORT_PROPERTY} is set. */
+    public static void startIfConfigured() {
+        Integer port = Integer.getInteger(PORT_PROPERTY);
+        if (port == null || port <= 0) return;
+        try {
+            start(port);
+        } catch (IOException e) {
+            System.err.println("Could not start metrics endpoint on port " + port + ": " + e.getMessage());
+        }
+    }
+
+    public static synchronized void start(int port) throws IOException {
+        if (server != null) return;
+        HttpServer s = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        s.createContext("/metrics", exchange -> {
+            StringBuilder text = new StringBuilder();
+            MetricsRegistry.shared().writePrometheus(text);
+            EdtWatchdog.shared().writePrometheus(text);
+            byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        // Scrapes are rare and cheap, the server's own dispatcher thread is enough
+        s.start();
+        server = s;
+    }
+
+    public static synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One source of a multi-mirror download and how it has performed so far.
+ * Connections are spread over the mirrors with {@link #pick}; a mirror that
+ * fails is marked down and gets no new connections.
+ */
+public class Mirror {
+
+    // Weight of the newest range when smoothing the per-connection rate
+    private static final double RATE_SMOOTHING = 0.3;
+
+    private final String url;
+    private final String host;
+    private final RemoteFileInfo info;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private volatile double connectionRate = 0;
+    private volatile String failure = null;
+
+    public Mirror(String url, RemoteFileInfo info) {
+        this.url = url;
+        this.host = DownloadScheduler.hostOf(url);
+        this.info = info;
+    }
+
+    /**
+     * The usable mirror a new connection should go to: one that has not been
+     * tried yet, otherwise the one expected to give the extra connection the
+     * most bandwidth. Returns null if every mirror is down.
+     */
+    public static Mirror pick(List<Mirror> mirrors) {
+        Mirror best = null;
+        double bestScore = -1;
+        for (Mirror mirror : mirrors) {
+            if (mirror.isDown()) continue;
+            int n = mirror.connections.get();
+            // Assume the mirror's total bandwidth is fixed and the new connection gets an equal share
+            double score = mirror.connectionRate == 0 ? Double.MAX_VALUE / (n + 1) : mirror.connectionRate * n / (n + 1);
+            if (best == null || score > bestScore) {
+                best = mirror;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    public static int countUsable(List<Mirror> mirrors) {
+        int usable = 0;
+        for (Mirror mirror : mirrors) {
+            if (!mirror.isDown()) usable++;
+        }
+        return usable;
+    }
+
+    void connectionOpened() { connections.incrementAndGet(); }
+    void connectionClosed() { connections.decrementAndGet(); }
+
+    void addBytes(long count) { bytes.addAndGet(count); }
+
+    /** Folds the rate one connection achieved on its last range into the estimate. */
+    synchronized void rangeFinished(double bytesPerSecond) {
+        connectionRate = connectionRate == 0 ? bytesPerSecond
+                : connectionRate + RATE_SMOOTHING * (bytesPerSecond - connectionRate);
+    }
+
+    void markDown(String reason) {
+        if (failure == null) failure = reason;
+    }
+
+    public boolean isDown() { return failure != null; }
+    public String getFailure() { return failure; }
+    public String getUrl() { return url; }
+    public String getHost() { return host; }
+    public RemoteFileInfo getInfo() { return info; }
+    public long getBytes() { return bytes.get(); }
+    public int getConnections() { return connections.get(); }
+    public double getConnectionRate() { return connectionRate; }
+}
@@ -3,16 +3,23 @@ import javax.swing.border.EmptyBorder;
 import javax.swing.event.DocumentListener;
 import javax.swing.event.DocumentEvent;
 import java.awt.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class NewDownloadTaskDialog extends JDialog {
 
     private JTextField urlTextField;
     private JLabel fileSizeLabel;
+    private JTextField checksumTextField;
+    private JTextField mirrorsTextField;
+    private JCheckBox previewCheckBox;
     private RoundedButton downloadButton;
     private RoundedButton cancelButton;
     private String enteredUrl = null;
+    private RemoteFileInfo probedInfo = null;
+    private CompletableFuture<RemoteFileInfo> pendingProbe = null;
+    private Timer probeDebounceTimer;
+    private static final int PROBE_DELAY_MS = 400; // Wait for the user to stop typing
     private static final Color APPLE_GREEN = Color.decode("#60CD38");
     private static final Color LIGHT_GRAY = Color.decode("#F2F2F2");
     private static final Color QUILL_GREY = Color.decode("#A8A8A8");
@@ -20,7 +27,7 @@ public class NewDownloadTaskDialog extends JDialog {
 
     public NewDownloadTaskDialog(JFrame parentFrame) {
         super(parentFrame, "New Download Task", true);
-        setSize(500, 250); // Increased height to accommodate file size label
+        setSize(500, 380); // Increased height to accommodate file size, checksum, mirror and preview rows
         setResizable(false);
         setLocationRelativeTo(parentFrame);
 
@@ -72,6 +79,64 @@ public class NewDownloadTaskDialog extends JDialog {
         gbc.weightx = 1.0;
         panel.add(fileSizeLabel, gbc);
 
+        // Optional expected checksum, verified once the download finishes
+        JLabel checksumTitleLabel = new JLabel("SHA-256:");
+        checksumTitleLabel.setFont(new Font("Arial", Font.BOLD, 14));
+        checksumTitleLabel.setForeground(CHARCOAL);
+        gbc.gridx = 0;
+        gbc.gridy = 2;
+        gbc.weightx = 0;
+        panel.add(checksumTitleLabel, gbc);
+
+        checksumTextField = new JTextField(35);
+        checksumTextField.setFont(new Font("Arial", Font.PLAIN, 12));
+        checksumTextField.setToolTipText("Optional, leave empty to skip verification");
+        checksumTextField.setBorder(BorderFactory.createCompoundBorder(
+                BorderFactory.createLineBorder(QUILL_GREY, 1),
+                BorderFactory.createEmptyBorder(5, 8, 5, 8)));
+        gbc.gridx = 1;
+        gbc.gridy = 2;
+        gbc.weightx = 1.0;
+        panel.add(checksumTextField, gbc);
+
+        // Optional mirrors of the same file, ranges are fetched from all of them
+        JLabel mirrorsTitleLabel = new JLabel("Mirrors:");
+        mirrorsTitleLabel.setFont(new Font("Arial", Font.BOLD, 14));
+        mirrorsTitleLabel.setForeground(CHARCOAL);
+        gbc.gridx = 0;
+        gbc.gridy = 3;
+        gbc.weightx = 0;
+        panel.add(mirrorsTitleLabel, gbc);
+
+        mirrorsTextField = new JTextField(35);
+        mirrorsTextField.setFont(new Font("Arial", Font.PLAIN, 12));
+        mirrorsTextField.setToolTipText("Optional, other URLs of the same file separated by spaces");
+        mirrorsTextField.setBorder(BorderFactory.createCompoundBorder(
+                BorderFactory.createLineBorder(QUILL_GREY, 1),
+                BorderFactory.createEmptyBorder(5, 8, 5, 8)));
+        gbc.gridx = 1;
+        gbc.gridy = 3;
+        gbc.weightx = 1.0;
+        panel.add(mirrorsTextField, gbc);
+
+        // Stream-friendly mode, the file opens in the browser once its start is in
+        JLabel previewTitleLabel = new JLabel("Preview:");
+        previewTitleLabel.setFont(new Font("Arial", Font.BOLD, 14));
+        previewTitleLabel.setForeground(CHARCOAL);
+        gbc.gridx = 0;
+        gbc.gridy = 4;
+        gbc.weightx = 0;
+        panel.add(previewTitleLabel, gbc);
+
+        previewCheckBox = new JCheckBox("Play while downloading");
+        previewCheckBox.setFont(new Font("Arial", Font.PLAIN, 13));
+        previewCheckBox.setForeground(CHARCOAL);
+        previewCheckBox.setBackground(LIGHT_GRAY);
+        gbc.gridx = 1;
+        gbc.gridy = 4;
+        gbc.weightx = 1.0;
+        panel.add(previewCheckBox, gbc);
+
         // Button Panel
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 10, 0));
         buttonPanel.setBackground(LIGHT_GRAY);
@@ -95,7 +160,7 @@ public class NewDownloadTaskDialog extends JDialog {
         buttonPanel.add(downloadButton);
 
         gbc.gridx = 0;
-        gbc.gridy = 2;
+        gbc.gridy = 5;
         gbc.gridwidth = 2;
         gbc.anchor = GridBagConstraints.EAST;
         gbc.fill = GridBagConstraints.NONE;
@@ -105,6 +170,9 @@ public class NewDownloadTaskDialog extends JDialog {
     }
 
     private void addListeners() {
+        probeDebounceTimer = new Timer(PROBE_DELAY_MS, e -> probeFileSize());
+        probeDebounceTimer.setRepeats(false);
+
         // Listen for changes in the URL text field
         urlTextField.getDocument().addDocumentListener(new DocumentListener() {
             @Override
@@ -142,57 +210,56 @@ public class NewDownloadTaskDialog extends JDialog {
     private void updateFileSize() {
         String urlText = urlTextField.getText().trim();
         downloadButton.setEnabled(false);
-        fileSizeLabel.setText("Checking...");
+        probedInfo = null;
+        cancelPendingProbe();
 
         if (urlText.isEmpty()) {
+            probeDebounceTimer.stop();
             fileSizeLabel.setText("Unknown");
             return;
         }
+        fileSizeLabel.setText("Checking...");
+        probeDebounceTimer.restart();
+    }
 
-        // Run the HEAD request in a separate thread to avoid freezing the UI
-        new Thread(() -> {
-            try {
-                URL url = new URL(urlText);
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                connection.setRequestMethod("HEAD");
-                connection.connect();
-                long fileSize = connection.getContentLengthLong();
-                connection.disconnect();
-
-                SwingUtilities.invokeLater(() -> {
-                    if (fileSize >= 0) {
-                        fileSizeLabel.setText(formatBytes(fileSize));
-                        downloadButton.setEnabled(true);
-                    } else {
-                        fileSizeLabel.setText("Unknown");
-                        downloadButton.setEnabled(true); // Allow download even if size unknown
-                    }
-                });
-            } catch (Exception ex) {
-                SwingUtilities.invokeLater(() -> {
-                    fileSizeLabel.setText("Unknown");
-                    downloadButton.setEnabled(true); // Allow download on error
-                });
+    private void probeFileSize() {
+        String urlText = urlTextField.getText().trim();
+        if (urlText.isEmpty()) return;
+
+        CompletableFuture<RemoteFileInfo> probe = RemoteInfoCache.shared().probeAsync(urlText);
+        pendingProbe = probe;
+        probe.whenComplete((info, error) -> SwingUtilities.invokeLater(() -> {
+            // A newer keystroke has already replaced this probe
+            if (probe != pendingProbe || !urlText.equals(urlTextField.getText().trim())) return;
+            pendingProbe = null;
+            probedInfo = info;
+            if (info != null && info.getSize() >= 0) {
+                fileSizeLabel.setText(formatBytes(info.getSize()));
+            } else {
+                fileSizeLabel.setText("Unknown");
             }
-        }).start();
+            downloadButton.setEnabled(true); // Allow download even if size unknown or on error
+        }));
     }
-    public long getFileSize() {
-        String sizeText = fileSizeLabel.getText();
-        if (sizeText.equals("Unknown") || sizeText.equals("Checking...")) {
-            return -1;
-        }
-        // Parse the file size back to bytes (inverse of formatBytes)
-        try {
-            String[] parts = sizeText.split(" ");
-            double value = Double.parseDouble(parts[0]);
-            String unit = parts[1];
-            int exp = "BKMGTPE".indexOf(unit.charAt(0));
-            return (long) (value * Math.pow(1024, exp));
-        } catch (Exception e) {
-            return -1;
+
+    private void cancelPendingProbe() {
+        if (pendingProbe != null) {
+            pendingProbe.cancel(true);
+            pendingProbe = null;
         }
     }
 
+    @Override
+    public void dispose() {
+        probeDebounceTimer.stop();
+        cancelPendingProbe();
+        super.dispose();
+    }
+
+    public long getFileSize() {
+        return probedInfo != null ? probedInfo.getSize() : -1;
+    }
+
     private String formatBytes(long bytes) {
         if (bytes < 1024) return bytes + " B";
         int exp = (int) (Math.log(bytes) / Math.log(1024));
@@ -203,4 +270,21 @@ public class NewDownloadTaskDialog extends JDialog {
     public String getEnteredUrl() {
         return enteredUrl;
     }
-}
\ No newline at end of file
+
+    /** Expected SHA-256 in hex, or null if the user left the field empty. */
+    public String getExpectedChecksum() {
+        String checksum = checksumTextField.getText().trim();
+        return checksum.isEmpty() ? null : checksum;
+    }
+
+    /** True if the user wants to play the file while it downloads. */
+    public boolean isPreviewRequested() {
+        return previewCheckBox.isSelected();
+    }
+
+    /** Mirror URLs the user entered, empty if none. */
+    public List<String> getMirrors() {
+        String mirrors = mirrorsTextField.getText().trim();
+        return mirrors.isEmpty() ? List.of() : List.of(mirrors.split("\\s+"));
+    }
+}
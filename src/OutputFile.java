@@ -0,0 +1,221 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The file a download writes into. Bytes go to "name.part" next to the final
+ * name, at their own offsets, from any number of connections; only a complete
+ * download is renamed to its final name, so a half-written file never looks
+ * like a finished one. Existing files are never overwritten: if "song.mp3" is
+ * taken the download becomes "song (1).mp3".
+ * <p>
+ * How the final size is reserved up front comes from {@code -Dtwiby.preallocate}:
+ * SPARSE (default) sets the length and lets the file system fill it in,
+ * FULL writes zeros first so the space is really taken and the file is laid
+ * out in one piece, NONE lets the file grow as data arrives.
+ */
+public class OutputFile implements Closeable {
+
+    public enum Preallocation { NONE, SPARSE, FULL }
+
+    public static final String PART_SUFFIX = ".part";
+    public static final Preallocation PREALLOCATION =
+            Preallocation.valueOf(System.getProperty("twiby.preallocate", "SPARSE"));
+
+    private static final int MAX_NAME_ATTEMPTS = 10_000;
+    private static final int ZERO_CHUNK = 1024 * 1024;
+
+    private Path target;
+    private Path part;
+    private FileChannel channel;
+    // Set for a newer version of a file we own, which is swapped in over the old one
+    private final boolean replace;
+
+    private OutputFile(Path target, boolean replace) {
+        this.target = target;
+        this.part = partOf(target);
+        this.replace = replace;
+    }
+
+    /**
+     * Picks the name for a download of {@code url} to {@code base} and claims it
+     * by creating its part file. An interrupted download of the same URL under
+     * any of the numbered names is picked up again; names used by other files or
+     * other downloads are skipped.
+     */
+    public static OutputFile create(Path base, String url) throws IOException {
+        Path directory = base.toAbsolutePath().getParent();
+        if (directory != null) Files.createDirectories(directory);
+        for (int n = 0; n < MAX_NAME_ATTEMPTS; n++) {
+            Path candidate = numbered(base, n);
+            Path part = partOf(candidate);
+            DownloadJournal journal = DownloadJournal.load(candidate.toString());
+            if (journal != null) {
+                if (!url.equals(journal.getUrl())) continue;
+                if (!Files.exists(part) && Files.exists(candidate)) {
+                    // Written before downloads went to a part file; the journal says it is partial
+                    Files.move(candidate, part);
+                } else if (!Files.exists(part)) {
+                    journal.delete(); // The data it describes is gone
+                }
+                if (Files.exists(part)) return new OutputFile(candidate, false);
+            }
+            if (Files.exists(candidate) || Files.exists(part)) continue;
+            try {
+                Files.createFile(part);
+                return new OutputFile(candidate, false);
+            } catch (FileAlreadyExistsException e) {
+                // Another download claimed it just now
+            }
+        }
+        throw new IOException("No free file name for " + base);
+    }
+
+    /**
+     * A new version of {@code target}, which an earlier download of {@code url}
+     * made. The old file stays in place until {@link #commit} replaces it in one
+     * step. An interrupted update of the same URL is picked up again.
+     */
+    public static OutputFile replacing(Path target, String url) throws IOException {
+        Path part = partOf(target);
+        DownloadJournal journal = DownloadJournal.load(target.toString());
+        if (journal == null || !url.equals(journal.getUrl()) || !Files.exists(part)) {
+            if (journal != null) journal.delete();
+            Files.deleteIfExists(part);
+            Files.createFile(part);
+        }
+        return new OutputFile(target, true);
+    }
+
+    /** Empties the part file, for data that turned out to belong to an older version of the file. */
+    public void clear() throws IOException {
+        close();
+        Files.write(part, new byte[0]);
+    }
+
+    /** Name the download will get when it completes. */
+    public Path getTarget() { return target; }
+
+    public Path getPartPath() { return part; }
+
+    /**
+     * Opens the part file for positional writes, reserving {@code size} bytes
+     * if the size is known (-1 if not). Checks there is room for it first.
+     */
+    public FileChannel open(long size) throws IOException {
+        close();
+        channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (size >= 0) preallocate(size);
+        return channel;
+    }
+
+    /** Grows the open part file to {@code size}; data already written stays as it is. */
+    public void preallocate(long size) throws IOException {
+        long current = channel.size();
+        if (current >= size || PREALLOCATION == Preallocation.NONE) return;
+        FileStore store = Files.getFileStore(part);
+        if (store.getUsableSpace() < size - current) {
+            throw new FatalDownloadException("Not enough disk space for " + target.getFileName() + ": needs "
+                    + (size - current) + " more bytes, " + store.getUsableSpace() + " free");
+        }
+        if (PREALLOCATION == Preallocation.FULL) {
+            ByteBuffer zeros = ByteBuffer.allocateDirect(ZERO_CHUNK);
+            for (long position = current; position < size; ) {
+                zeros.clear().limit((int) Math.min(ZERO_CHUNK, size - position));
+                position += channel.write(zeros, position);
+            }
+        } else {
+            channel.write(ByteBuffer.wrap(new byte[1]), size - 1);
+        }
+    }
+
+    /**
+     * Renames the finished part file to the target name, or to the next free
+     * numbered name if something took it in the meantime; a {@link #replacing}
+     * file takes the target's place. Returns the final path.
+     */
+    public Path commit() throws IOException {
+        close();
+        if (replace) {
+            try {
+                Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return target;
+        }
+        for (int n = 0; n < MAX_NAME_ATTEMPTS; n++) {
+            Path candidate = n == 0 ? target : numbered(target, n);
+            if (n > 0 && (Files.exists(partOf(candidate)) || Files.exists(journalOf(candidate)))) continue;
+            if (moveWithoutReplacing(part, candidate)) {
+                target = candidate;
+                part = partOf(candidate);
+                return candidate;
+            }
+        }
+        throw new IOException("No free file name for " + target);
+    }
+
+    /** Deletes the part file of a download that will not be continued. */
+    public void discard() throws IOException {
+        close();
+        Files.deleteIfExists(part);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * A hard link is the one way to rename that fails instead of replacing an
+     * existing file; where links are not supported, fall back to a plain move.
+     */
+    private static boolean moveWithoutReplacing(Path from, Path to) throws IOException {
+        try {
+            Files.createLink(to, from);
+            Files.delete(from);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        } catch (UnsupportedOperationException | IOException e) {
+            if (Files.exists(to)) return false;
+            try {
+                Files.move(from, to);
+                return true;
+            } catch (FileAlreadyExistsException raced) {
+                return false;
+            }
+        }
+    }
+
+    /** "song.mp3", "song (1).mp3", "song (2).mp3", ... */
+    static Path numbered(Path base, int n) {
+        if (n == 0) return base;
+        String name = base.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String numbered = dot > 0
+                ? name.substring(0, dot) + " (" + n + ")" + name.substring(dot)
+                : name + " (" + n + ")";
+        return base.resolveSibling(numbered);
+    }
+
+    private static Path partOf(Path target) {
+        return target.resolveSibling(target.getFileName() + PART_SUFFIX);
+    }
+
+    private static Path journalOf(Path target) {
+        return target.resolveSibling(target.getFileName() + DownloadJournal.SUFFIX);
+    }
+}
@@ -0,0 +1,51 @@
+import javax.swing.*;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Batches progress repaints of all download rows into one EDT event per tick.
+ * Download threads only mark a row dirty; the timer applies the latest values
+ * at most {@code updatesPerSecond} times a second, however fast bytes arrive.
+ */
+public class ProgressCoalescer {
+
+    public static final int DEFAULT_UPDATES_PER_SECOND = 10;
+
+    private final Set<Runnable> dirty = ConcurrentHashMap.newKeySet();
+    private final Timer timer;
+
+    public ProgressCoalescer() {
+        this(DEFAULT_UPDATES_PER_SECOND);
+    }
+
+    public ProgressCoalescer(int updatesPerSecond) {
+        timer = new Timer(1000 / Math.max(1, updatesPerSecond), e -> flush());
+        timer.setCoalesce(true);
+    }
+
+    /**
+     * Schedules {@code update} for the next tick. Safe to call from any thread;
+     * marking the same update again before the tick is a no-op.
+     */
+    public void markDirty(Runnable update) {
+        dirty.add(update);
+        if (!timer.isRunning()) {
+            timer.start();
+        }
+    }
+
+    private void flush() {
+        Iterator<Runnable> it = dirty.iterator();
+        while (it.hasNext()) {
+            Runnable update = it.next();
+            it.remove();
+            update.run();
+        }
+        // Idle when nothing is downloading; re-check in case a row was marked while stopping
+        timer.stop();
+        if (!dirty.isEmpty()) {
+            timer.start();
+        }
+    }
+}
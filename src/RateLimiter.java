@@ -0,0 +1,80 @@
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting a byte stream to a rate that can be changed while
+ * transfers run. The bucket only holds 50 ms worth of tokens, so a limited
+ * download never bursts far above its rate.
+ */
+public class RateLimiter {
+
+    public static final long UNLIMITED = 0;
+
+    private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    // Below this a read would turn into a syscall for a handful of bytes
+    private static final int MIN_CHUNK = 4096;
+
+    private long bytesPerSecond;
+    private double available;
+    private long lastRefill = System.nanoTime();
+
+    public RateLimiter(long bytesPerSecond) {
+        setRate(bytesPerSecond);
+    }
+
+    /** Changes the rate; {@link #UNLIMITED} (or any value <= 0) turns the limit off. */
+    public synchronized void setRate(long bytesPerSecond) {
+        refill();
+        this.bytesPerSecond = Math.max(UNLIMITED, bytesPerSecond);
+        available = Math.min(available, burstSize());
+    }
+
+    public synchronized long getRate() {
+        return bytesPerSecond;
+    }
+
+    public synchronized boolean isLimited() {
+        return bytesPerSecond > UNLIMITED;
+    }
+
+    /** Largest read worth asking for, so one {@link #acquire} never sleeps much past the burst window. */
+    public synchronized int chunkSize(int preferred) {
+        if (bytesPerSecond <= UNLIMITED) return preferred;
+        return (int) Math.max(MIN_CHUNK, Math.min(preferred, (long) burstSize()));
+    }
+
+    /**
+     * Takes {@code bytes} tokens, sleeping until the bucket is no longer in debt.
+     * The bytes have usually been read already, so the tokens are taken up front
+     * and the caller pays for them afterwards.
+     */
+    public void acquire(long bytes) throws InterruptedIOException {
+        long waitNanos;
+        synchronized (this) {
+            if (bytesPerSecond <= UNLIMITED) return;
+            refill();
+            available -= bytes;
+            waitNanos = available < 0 ? (long) (-available * 1_000_000_000L / bytesPerSecond) : 0;
+        }
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while rate limited");
+            }
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (bytesPerSecond > UNLIMITED) {
+            available = Math.min(burstSize(), available + (now - lastRefill) * (double) bytesPerSecond / 1_000_000_000L);
+        }
+        lastRefill = now;
+    }
+
+    private double burstSize() {
+        return Math.max(MIN_CHUNK, bytesPerSecond * (double) BURST_NANOS / 1_000_000_000L);
+    }
+}
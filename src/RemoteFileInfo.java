@@ -0,0 +1,112 @@
+import java.io.IOException;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * What a HEAD request told us about a remote file: its size, whether it can
+ * be fetched in byte ranges, and the validators used to detect changes.
+ */
+public class RemoteFileInfo {
+
+    private static final int HTTP_NOT_MODIFIED = 304;
+
+    private final long size;
+    private final boolean acceptsRanges;
+    private final String etag;
+    private final String lastModified;
+    private final String contentType;
+
+    public RemoteFileInfo(long size, boolean acceptsRanges, String etag, String lastModified) {
+        this(size, acceptsRanges, etag, lastModified, null);
+    }
+
+    public RemoteFileInfo(long size, boolean acceptsRanges, String etag, String lastModified, String contentType) {
+        this.size = size;
+        this.acceptsRanges = acceptsRanges;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.contentType = contentType;
+    }
+
+    public static RemoteFileInfo probe(String urlString) throws IOException {
+        HttpResponse<Void> response = HttpClients.send(HttpClients.shared(), headRequest(urlString),
+                HttpResponse.BodyHandlers.discarding());
+        return fromResponse(urlString, response);
+    }
+
+    /**
+     * Conditional HEAD for a file we already have: sends the validators from
+     * {@code previous} as If-None-Match / If-Modified-Since. Returns null if the
+     * server answers 304 Not Modified, otherwise what it says about the file now.
+     */
+    public static RemoteFileInfo probeIfChanged(String urlString, SyncState previous) throws IOException {
+        HttpRequest.Builder request = HttpClients.request(urlString)
+                .method("HEAD", HttpRequest.BodyPublishers.noBody());
+        if (previous.getEtag() != null) request.header("If-None-Match", previous.getEtag());
+        if (previous.getLastModified() != null) request.header("If-Modified-Since", previous.getLastModified());
+        HttpResponse<Void> response = HttpClients.send(HttpClients.shared(), request.build(),
+                HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() == HTTP_NOT_MODIFIED) return null;
+        return fromResponse(urlString, response);
+    }
+
+    /**
+     * Same as {@link #probe} without blocking the caller. Cancelling the returned
+     * future aborts the request.
+     */
+    public static CompletableFuture<RemoteFileInfo> probeAsync(String urlString) {
+        CompletableFuture<HttpResponse<Void>> exchange;
+        try {
+            exchange = HttpClients.shared().sendAsync(headRequest(urlString), HttpResponse.BodyHandlers.discarding());
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<RemoteFileInfo> result = exchange.thenApply(response -> {
+            try {
+                return fromResponse(urlString, response);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+        // Cancelling a dependent stage does not reach the exchange by itself
+        result.whenComplete((info, error) -> {
+            if (result.isCancelled()) exchange.cancel(true);
+        });
+        return result;
+    }
+
+    private static HttpRequest headRequest(String urlString) throws IOException {
+        return HttpClients.request(urlString)
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .build();
+    }
+
+    private static RemoteFileInfo fromResponse(String urlString, HttpResponse<?> response) throws IOException {
+        if (response.statusCode() / 100 != 2) {
+            throw HttpStatusException.of("HEAD " + urlString + " failed", response);
+        }
+        HttpHeaders headers = response.headers();
+        String acceptRanges = headers.firstValue("Accept-Ranges").orElse(null);
+        return new RemoteFileInfo(
+                headers.firstValueAsLong("Content-Length").orElse(-1),
+                acceptRanges != null && acceptRanges.trim().equalsIgnoreCase("bytes"),
+                headers.firstValue("ETag").orElse(null),
+                headers.firstValue("Last-Modified").orElse(null),
+                headers.firstValue("Content-Type").orElse(null));
+    }
+
+    public long getSize() { return size; }
+    public boolean acceptsRanges() { return acceptsRanges && size > 0; }
+    public String getEtag() { return etag; }
+    public String getLastModified() { return lastModified; }
+    public String getContentType() { return contentType; }
+
+    /** Value for an If-Range header, preferring the strong ETag over the date. */
+    public String getValidator() {
+        if (etag != null && !etag.startsWith("W/")) return etag;
+        return lastModified;
+    }
+}
@@ -0,0 +1,84 @@
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small LRU cache of HEAD probe results with a time-to-live, so the URL typed
+ * into the New Task dialog is not probed again when the download starts.
+ */
+public class RemoteInfoCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final RemoteInfoCache SHARED = new RemoteInfoCache(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS);
+
+    private final long ttlNanos;
+    private final Map<String, Entry> entries;
+
+    public RemoteInfoCache(int maxEntries, long ttlMillis) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        // Access order turns the LinkedHashMap into an LRU list
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public static RemoteInfoCache shared() {
+        return SHARED;
+    }
+
+    /** Returns the cached result for {@code urlString}, or null if absent or expired. */
+    public synchronized RemoteFileInfo get(String urlString) {
+        Entry entry = entries.get(urlString);
+        if (entry == null) return null;
+        if (System.nanoTime() - entry.storedAt > ttlNanos) {
+            entries.remove(urlString);
+            return null;
+        }
+        return entry.info;
+    }
+
+    public synchronized void put(String urlString, RemoteFileInfo info) {
+        entries.put(urlString, new Entry(info, System.nanoTime()));
+    }
+
+    public synchronized void invalidate(String urlString) {
+        entries.remove(urlString);
+    }
+
+    /** Cached result if still fresh, otherwise a blocking HEAD request whose answer is cached. */
+    public RemoteFileInfo probe(String urlString) throws IOException {
+        RemoteFileInfo info = get(urlString);
+        if (info == null) {
+            info = RemoteFileInfo.probe(urlString);
+            put(urlString, info);
+        }
+        return info;
+    }
+
+    public CompletableFuture<RemoteFileInfo> probeAsync(String urlString) {
+        RemoteFileInfo info = get(urlString);
+        if (info != null) {
+            return CompletableFuture.completedFuture(info);
+        }
+        CompletableFuture<RemoteFileInfo> future = RemoteFileInfo.probeAsync(urlString);
+        future.thenAccept(result -> put(urlString, result));
+        return future;
+    }
+
+    private static class Entry {
+        final RemoteFileInfo info;
+        final long storedAt;
+
+        Entry(RemoteFileInfo info, long storedAt) {
+            this.info = info;
+            this.storedAt = storedAt;
+        }
+    }
+}
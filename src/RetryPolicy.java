@@ -0,0 +1,63 @@
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.nio.file.FileSystemException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How often and how patiently a download retries: exponential backoff with
+ * full jitter, so many clients hit by the same outage do not come back in
+ * lockstep. Defaults come from system properties.
+ */
+public class RetryPolicy {
+
+    public static final int DEFAULT_MAX_RETRIES = Integer.getInteger("twiby.retries", 5);
+    public static final long DEFAULT_BASE_DELAY_MILLIS = Long.getLong("twiby.retry.baseDelay", 1000);
+    public static final long DEFAULT_MAX_DELAY_MILLIS = Long.getLong("twiby.retry.maxDelay", 60_000);
+
+    public static final RetryPolicy NONE = new RetryPolicy(0, 0, 0);
+
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    public RetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis) {
+        this.maxRetries = Math.max(0, maxRetries);
+        this.baseDelayMillis = Math.max(0, baseDelayMillis);
+        this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+    }
+
+    public static RetryPolicy defaults() {
+        return new RetryPolicy(DEFAULT_MAX_RETRIES, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    /** Retries allowed in a row without any data arriving in between. */
+    public int getMaxRetries() { return maxRetries; }
+
+    /** Network trouble and transient HTTP statuses are retried; bad input, local I/O and bugs are not. */
+    public boolean isRetryable(Throwable error) {
+        if (error instanceof FatalDownloadException
+                || error instanceof MalformedURLException
+                || error instanceof FileSystemException) {
+            return false;
+        }
+        if (error instanceof HttpStatusException status) {
+            return status.isTransient();
+        }
+        return error instanceof IOException;
+    }
+
+    /**
+     * Delay before retry number {@code attempt} (1-based): a random value up to
+     * base * 2^(attempt-1), capped at the maximum. A Retry-After from the server
+     * is honoured as the lower bound.
+     */
+    public long delayMillis(int attempt, Throwable error) {
+        long ceiling = baseDelayMillis << Math.min(attempt - 1, 30);
+        if (ceiling <= 0 || ceiling > maxDelayMillis) ceiling = maxDelayMillis;
+        long delay = ceiling > 0 ? ThreadLocalRandom.current().nextLong(ceiling + 1) : 0;
+        if (error instanceof HttpStatusException status && status.getRetryAfter() != null) {
+            delay = Math.max(delay, Math.min(status.getRetryAfter().toMillis(), maxDelayMillis));
+        }
+        return delay;
+    }
+}
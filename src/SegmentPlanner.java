@@ -0,0 +1,249 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands out the byte ranges of a segmented download and decides how many
+ * connections it should use. A connection that runs out of work takes over
+ * the tail of the range that would otherwise finish last, and the connection
+ * count climbs while total throughput keeps improving and backs off when it
+ * stops doing so.
+ */
+public class SegmentPlanner {
+
+    // A stolen tail needs its own request, so both halves must stay worth one
+    static final long MIN_STEAL_SIZE = 256 * 1024;
+    static final int DEFAULT_MAX_CONNECTIONS = Integer.getInteger("twiby.maxConnections", 8);
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // Throughput must move by more than this to count as better or worse
+    private static final double SIGNIFICANT_CHANGE = 0.10;
+    // After settling, try one more connection again every this many windows
+    private static final int REPROBE_WINDOWS = 10;
+
+    private final Deque<Segment> pending = new ArrayDeque<>();
+    private final List<Segment> active = new ArrayList<>();
+    private int target;
+    private int ceiling;
+    private int steals = 0;
+
+    // Hill climbing state
+    private long windowStart = 0;
+    private long windowBytes;
+    private double lastRate = 0;
+    private int lastChange = 0;
+    private boolean growing = true;
+    private int stableWindows = 0;
+
+    public SegmentPlanner(List<long[]> ranges, int initialConnections, int maxConnections) {
+        for (long[] range : ranges) pending.add(new Segment(range[0], range[1]));
+        this.ceiling = Math.max(1, maxConnections);
+        this.target = Math.max(1, Math.min(initialConnections, ceiling));
+    }
+
+    /**
+     * Work for a connection that just became free, or null if there is nothing
+     * left worth a new request. {@code workerRate} is what this connection managed
+     * on its last range (0 if unknown); it decides how much of a slow range to take over.
+     */
+    public synchronized Segment next(double workerRate) {
+        Segment segment = pending.poll();
+        if (segment == null) segment = steal(workerRate);
+        if (segment != null) active.add(segment);
+        return segment;
+    }
+
+    private Segment steal(double workerRate) {
+        // Try the ranges expected to finish last first, not simply the longest ones
+        List<Segment> victims = new ArrayList<>();
+        for (Segment segment : active) {
+            if (segment.remaining() >= MIN_STEAL_SIZE) victims.add(segment);
+        }
+        victims.sort(Comparator.comparingDouble((Segment segment) -> segment.secondsLeft(workerRate)).reversed());
+        for (Segment victim : victims) {
+            Segment tail = victim.splitTail(workerRate);
+            if (tail != null) {
+                steals++;
+                return tail;
+            }
+        }
+        return null;
+    }
+
+    /** The connection is done with {@code segment}; whatever it did not fetch goes back in the queue. */
+    public synchronized void release(Segment segment) {
+        active.remove(segment);
+        Segment rest = segment.unclaimed();
+        if (rest != null) pending.addFirst(rest);
+    }
+
+    /**
+     * Moves the pending ranges from {@code position} on ahead of the others, in
+     * file order, e.g. the index at the end of a video or where a player seeked
+     * to. Nothing changes if a connection is already fetching that position.
+     */
+    public synchronized void prioritize(long position) {
+        for (Segment segment : active) {
+            if (segment.getPosition() <= position && position <= segment.getEnd()) return;
+        }
+        List<Segment> first = new ArrayList<>();
+        List<Segment> rest = new ArrayList<>();
+        for (Segment segment : pending) {
+            if (segment.end < position) {
+                rest.add(segment);
+            } else if (segment.position < position) {
+                rest.add(new Segment(segment.position, position - 1));
+                first.add(new Segment(position, segment.end));
+            } else {
+                first.add(segment);
+            }
+        }
+        first.sort(Comparator.comparingLong(Segment::getStart));
+        pending.clear();
+        pending.addAll(first);
+        pending.addAll(rest);
+    }
+
+    /** True while there is a range no connection is working on, or one big enough to split. */
+    public synchronized boolean hasSpareWork() {
+        if (!pending.isEmpty()) return true;
+        for (Segment segment : active) {
+            if (segment.remaining() >= 2 * MIN_STEAL_SIZE) return true;
+        }
+        return false;
+    }
+
+    public synchronized boolean isComplete() {
+        return pending.isEmpty() && active.isEmpty();
+    }
+
+    public synchronized int getTarget() { return target; }
+    public synchronized int getStealCount() { return steals; }
+
+    /**
+     * Feeds the download's byte counter into the connection controller. Called
+     * regularly by the thread watching the download; acts once per window.
+     */
+    public synchronized void sample(long totalBytes, long nowNanos) {
+        if (windowStart == 0) {
+            windowStart = nowNanos;
+            windowBytes = totalBytes;
+            return;
+        }
+        long elapsed = nowNanos - windowStart;
+        if (elapsed < WINDOW_NANOS) return;
+        double rate = (totalBytes - windowBytes) * 1e9 / elapsed;
+        windowStart = nowNanos;
+        windowBytes = totalBytes;
+
+        if (lastRate > 0 && lastChange > 0) {
+            if (rate < lastRate * (1 - SIGNIFICANT_CHANGE)) {
+                // The extra connection made things worse, e.g. the server throttles per client
+                target = Math.max(1, target - lastChange);
+                growing = false;
+            } else if (rate < lastRate * (1 + SIGNIFICANT_CHANGE)) {
+                growing = false; // Plateau, the link or a rate limit is the bottleneck
+            }
+        } else if (!growing && ++stableWindows >= REPROBE_WINDOWS) {
+            growing = true;
+        }
+
+        lastChange = 0;
+        if (growing && target < ceiling && hasSpareWork()) {
+            target++;
+            lastChange = 1;
+            stableWindows = 0;
+        }
+        lastRate = rate;
+    }
+
+    /** The server pushed back (429/503): use one connection fewer and never go above that again. */
+    public synchronized void throttled(int running) {
+        ceiling = Math.max(1, Math.min(ceiling, running - 1));
+        target = Math.min(target, ceiling);
+        growing = false;
+        lastChange = 0;
+    }
+
+    /**
+     * One range being fetched by one connection. The connection claims bytes
+     * as they arrive; the end may move down when another connection takes over
+     * the tail.
+     */
+    public static class Segment {
+        private final long start;
+        private long position;
+        private long end;
+        private long firstByteNanos = 0;
+
+        Segment(long start, long end) {
+            this.start = start;
+            this.position = start;
+            this.end = end;
+        }
+
+        /** First byte of the range as it was handed out; what the Range header asks for. */
+        public long getStart() { return start; }
+
+        public synchronized long getEnd() { return end; }
+
+        /** Next byte this connection still has to fetch. */
+        public synchronized long getPosition() { return position; }
+
+        public synchronized boolean isDone() { return position > end; }
+
+        synchronized long remaining() { return end - position + 1; }
+
+        /**
+         * Takes up to {@code bytes} just read and returns how many of them still
+         * belong to this segment; anything past a moved end is someone else's.
+         */
+        public synchronized int claim(int bytes) {
+            if (firstByteNanos == 0) firstByteNanos = System.nanoTime();
+            int kept = (int) Math.max(0, Math.min(bytes, end - position + 1));
+            position += kept;
+            return kept;
+        }
+
+        /** Bytes per second since the first byte arrived. */
+        public synchronized double rate() {
+            if (firstByteNanos == 0) return 0;
+            long elapsed = System.nanoTime() - firstByteNanos;
+            return elapsed > 0 ? (position - start) * 1e9 / elapsed : 0;
+        }
+
+        /** Estimated time to finish; a range with no data yet is assumed to go at {@code fallbackRate}. */
+        synchronized double secondsLeft(double fallbackRate) {
+            double rate = firstByteNanos != 0 ? rate() : fallbackRate;
+            return (end - position + 1) / Math.max(rate, 1.0);
+        }
+
+        /**
+         * Cuts off a tail sized so both halves should finish together, or null if
+         * that is not worth a new request. A connection at least twice as fast as
+         * this one takes the whole rest rather than leave it a sliver it is slow at.
+         */
+        synchronized Segment splitTail(double thiefRate) {
+            long remaining = end - position + 1;
+            double ownRate = rate();
+            double share = thiefRate > 0 && ownRate > 0 ? thiefRate / (thiefRate + ownRate) : 0.5;
+            long tailSize = (long) (remaining * share);
+            if (remaining - tailSize < MIN_STEAL_SIZE && ownRate > 0 && thiefRate > 2 * ownRate) {
+                tailSize = remaining;
+            } else if (remaining < 2 * MIN_STEAL_SIZE) {
+                return null;
+            } else {
+                tailSize = Math.max(MIN_STEAL_SIZE, Math.min(remaining - MIN_STEAL_SIZE, tailSize));
+            }
+            Segment tail = new Segment(end - tailSize + 1, end);
+            end = tail.start - 1;
+            return tail;
+        }
+
+        synchronized Segment unclaimed() {
+            return position <= end ? new Segment(position, end) : null;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.List;
+
+/**
+ * Shows a page's source while it downloads. The fetch runs off the EDT and
+ * text is appended in chunks as it arrives, up to {@link #MAX_CHARS}.
+ * Closing the dialog cancels the fetch.
+ */
+public class SourceViewerDialog extends JDialog {
+
+    public static final int MAX_CHARS = 5 * 1024 * 1024;
+
+    private static final Color LIGHT_GRAY = Color.decode("#F2F2F2");
+    private static final Color QUILL_GREY = Color.decode("#A8A8A8");
+
+    private final JTextArea textArea;
+    private final JLabel statusLabel;
+    private final SwingWorker<Boolean, String> loader;
+    private final WebUtils.TransferSize transferSize = new WebUtils.TransferSize();
+    private long loadedChars = 0;
+
+    public SourceViewerDialog(JFrame parentFrame, String urlString) {
+        super(parentFrame, "Website Source", true);
+        setSize(700, 500);
+        setLocationRelativeTo(parentFrame);
+
+        textArea = new JTextArea(30, 80);
+        textArea.setFont(new Font("Consolas", Font.PLAIN, 12));
+        // Wrapping forces the text area to re-measure every long line on each append
+        textArea.setLineWrap(false);
+        textArea.setEditable(false);
+
+        JScrollPane sourceScrollPane = new JScrollPane(textArea);
+        sourceScrollPane.setBorder(BorderFactory.createEmptyBorder());
+        add(sourceScrollPane, BorderLayout.CENTER);
+
+        statusLabel = new JLabel("Loading...");
+        statusLabel.setFont(new Font("Arial", Font.PLAIN, 12));
+        statusLabel.setForeground(QUILL_GREY.darker());
+        statusLabel.setBorder(new EmptyBorder(5, 10, 5, 10));
+        statusLabel.setOpaque(true);
+        statusLabel.setBackground(LIGHT_GRAY);
+        add(statusLabel, BorderLayout.SOUTH);
+
+        loader = new SwingWorker<>() {
+            @Override
+            protected Boolean doInBackground() throws Exception {
+                return WebUtils.streamWebsiteSource(urlString, MAX_CHARS, text -> {
+                    publish(text);
+                    return !isCancelled();
+                }, transferSize);
+            }
+
+            @Override
+            protected void process(List<String> chunks) {
+                if (isCancelled()) return;
+                // SwingWorker batches chunks that arrived since the last repaint into one append
+                StringBuilder batch = new StringBuilder();
+                for (String chunk : chunks) batch.append(chunk);
+                textArea.append(batch.toString());
+                loadedChars += batch.length();
+                statusLabel.setText("Loading... " + formatChars(loadedChars));
+            }
+
+            @Override
+            protected void done() {
+                if (isCancelled()) return;
+                try {
+                    boolean truncated = get();
+                    statusLabel.setText((truncated
+                            ? "Truncated at " + formatChars(loadedChars)
+                            : "Loaded " + formatChars(loadedChars)) + transferred());
+                } catch (Exception e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    statusLabel.setText("Error: " + cause.getMessage());
+                }
+                textArea.setCaretPosition(0);
+            }
+        };
+
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                loader.cancel(true);
+            }
+        });
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+    }
+
+    /** Starts loading and shows the dialog; returns once it is closed. */
+    public void showSource() {
+        loader.execute();
+        setVisible(true);
+    }
+
+    /** ", 12.0 KB transferred (gzip)" when the server compressed the page, else nothing. */
+    private String transferred() {
+        if (transferSize.getEncoding() == null) return "";
+        return ", " + formatBytes(transferSize.getWireBytes()) + " transferred (" + transferSize.getEncoding() + ")";
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        int exp = (int) (Math.log(bytes) / Math.log(1024));
+        char pre = "KMGTPE".charAt(exp - 1);
+        return String.format("%.1f %cB", bytes / Math.pow(1024, exp), pre);
+    }
+
+    private static String formatChars(long chars) {
+        if (chars < 1024) return chars + " chars";
+        if (chars < 1024 * 1024) return String.format("%.1f K chars", chars / 1024.0);
+        return String.format("%.1f M chars", chars / (1024.0 * 1024));
+    }
+}
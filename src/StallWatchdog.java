@@ -0,0 +1,157 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read timeout and stall detection for response bodies. HttpClient has no
+ * read timeout of its own, so once a second this checks every watched
+ * stream and closes the ones that have been blocked in a read for too long
+ * or have stayed below a minimum rate; the blocked read then fails and the
+ * download retries. Only time spent waiting in a read counts, so a download
+ * held back by a speed limit is not mistaken for a stalled one.
+ */
+public class StallWatchdog {
+
+    public static final long DEFAULT_READ_TIMEOUT_SECONDS = Long.getLong("twiby.http.readTimeout", 30);
+    public static final long DEFAULT_MIN_RATE = Long.getLong("twiby.stall.minRate", 1024);
+    public static final int DEFAULT_STALL_SECONDS = Integer.getInteger("twiby.stall.seconds", 20);
+
+    private static final StallWatchdog SHARED =
+            new StallWatchdog(DEFAULT_READ_TIMEOUT_SECONDS, DEFAULT_MIN_RATE, DEFAULT_STALL_SECONDS);
+
+    private final Set<Watch> watches = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("stall-watchdog").daemon().factory());
+    private volatile long readTimeoutNanos;
+    private volatile long minRate;
+    private volatile int stallSeconds;
+    private ScheduledFuture<?> ticking;
+
+    public StallWatchdog(long readTimeoutSeconds, long minRate, int stallSeconds) {
+        this.readTimeoutNanos = TimeUnit.SECONDS.toNanos(Math.max(1, readTimeoutSeconds));
+        this.minRate = Math.max(0, minRate);
+        this.stallSeconds = Math.max(1, stallSeconds);
+    }
+
+    public static StallWatchdog shared() {
+        return SHARED;
+    }
+
+    /** A rate of 0 turns stall detection off; the read timeout always applies. */
+    public void configure(long readTimeoutSeconds, long minRate, int stallSeconds) {
+        this.readTimeoutNanos = TimeUnit.SECONDS.toNanos(Math.max(1, readTimeoutSeconds));
+        this.minRate = Math.max(0, minRate);
+        this.stallSeconds = Math.max(1, stallSeconds);
+    }
+
+    /** Starts watching {@code stream}; close the returned watch when the transfer is over. */
+    public synchronized Watch watch(Closeable stream) {
+        Watch watch = new Watch(stream, stallSeconds);
+        watches.add(watch);
+        if (ticking == null) {
+            ticking = timer.scheduleAtFixedRate(this::tick, 1, 1, TimeUnit.SECONDS);
+        }
+        return watch;
+    }
+
+    private synchronized void unwatch(Watch watch) {
+        watches.remove(watch);
+        if (watches.isEmpty() && ticking != null) {
+            ticking.cancel(false);
+            ticking = null;
+        }
+    }
+
+    private void tick() {
+        long now = System.nanoTime();
+        for (Watch watch : watches) {
+            String problem = watch.check(now, readTimeoutNanos, minRate);
+            if (problem != null) {
+                watch.abort(problem);
+                unwatch(watch);
+            }
+        }
+    }
+
+    /** One watched response body; feed it from the read loop. */
+    public class Watch implements AutoCloseable {
+        private final Closeable stream;
+        private final AtomicLong bytes = new AtomicLong();
+        private volatile long readStartNanos = 0;
+        private volatile String failure = null;
+        // Only touched by the watchdog thread
+        private final long[] window;
+        private int ticks = 0;
+        private long bytesAtLastTick = 0;
+
+        Watch(Closeable stream, int stallSeconds) {
+            this.stream = stream;
+            this.window = new long[stallSeconds];
+        }
+
+        /** Call right before a read that may block. */
+        public void beginRead() {
+            readStartNanos = System.nanoTime();
+        }
+
+        /** Call after the read with what it returned. */
+        public void endRead(int count) {
+            readStartNanos = 0;
+            if (count > 0) bytes.addAndGet(count);
+        }
+
+        /** If the watchdog closed the stream, explains why instead of the bare "closed" the read threw. */
+        public IOException explain(IOException error) {
+            String reason = failure;
+            if (reason == null) return error;
+            StalledException stalled = new StalledException(reason);
+            stalled.initCause(error);
+            return stalled;
+        }
+
+        String check(long now, long readTimeoutNanos, long minRate) {
+            long started = readStartNanos;
+            if (started == 0) return null; // Not waiting on the network right now
+            if (now - started > readTimeoutNanos) {
+                return "no data for " + TimeUnit.NANOSECONDS.toSeconds(now - started) + " s";
+            }
+            if (minRate == 0) return null;
+            long total = bytes.get();
+            window[ticks++ % window.length] = total - bytesAtLastTick;
+            bytesAtLastTick = total;
+            if (ticks < window.length) return null;
+            long sum = 0;
+            for (long count : window) sum += count;
+            if (sum < minRate * window.length) {
+                return "below " + minRate + " B/s for " + window.length + " s";
+            }
+            return null;
+        }
+
+        void abort(String reason) {
+            failure = reason;
+            try {
+                stream.close(); // Wakes up the blocked read
+            } catch (IOException ignored) {
+            }
+        }
+
+        @Override
+        public void close() {
+            unwatch(this);
+        }
+    }
+
+    /** The watchdog gave up on a response body. */
+    public static class StalledException extends IOException {
+        public StalledException(String message) {
+            super("Transfer stalled: " + message);
+        }
+    }
+}
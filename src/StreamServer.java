@@ -0,0 +1,226 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLConnection;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Lets a media player read a download while it is still running, at
+ * {@code http://127.0.0.1:PORT/stream/ID/name}. Only bytes already on disk are
+ * sent; a request for more waits until they arrive, so the player sees a slow
+ * server rather than a short file. Range requests are answered, which players
+ * need to seek and to read an MP4 index at the end of the file. Like
+ * {@link MetricsServer} it only listens on the loopback address; the port is
+ * picked by the system unless {@value #PORT_PROPERTY} is set.
+ */
+public final class StreamServer {
+
+    public static final String PORT_PROPERTY = "twiby.stream.port";
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final long POLL_MILLIS = 50;
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+    private static final Map<String, String> MEDIA_TYPES = Map.ofEntries(
+            Map.entry("mp3", "audio/mpeg"), Map.entry("m4a", "audio/mp4"), Map.entry("aac", "audio/aac"),
+            Map.entry("ogg", "audio/ogg"), Map.entry("oga", "audio/ogg"), Map.entry("opus", "audio/ogg"),
+            Map.entry("flac", "audio/flac"), Map.entry("wav", "audio/wav"), Map.entry("mp4", "video/mp4"),
+            Map.entry("m4v", "video/mp4"), Map.entry("3gp", "video/3gpp"), Map.entry("mov", "video/quicktime"),
+            Map.entry("webm", "video/webm"), Map.entry("mkv", "video/x-matroska"));
+
+    private static final Map<String, Downloader> published = new ConcurrentHashMap<>();
+    private static final AtomicInteger nextId = new AtomicInteger();
+    private static HttpServer server;
+
+    private StreamServer() {}
+
+    /**
+     * Makes {@code downloader} readable and returns its URL, starting the server
+     * if needed. It stays published until the download is over; requests
+     * already running then finish from the renamed file, later ones get 404.
+     */
+    public static synchronized String publish(Downloader downloader) throws IOException {
+        if (server == null) start(Integer.getInteger(PORT_PROPERTY, 0));
+        String id = Integer.toString(nextId.incrementAndGet());
+        published.put(id, downloader);
+        // Otherwise every finished Downloader, and its buffers, would stay reachable from here
+        downloader.addListener(new DownloadListener() {
+            @Override
+            public void completed(Downloader d) { unpublish(d); }
+
+            @Override
+            public void failed(Downloader d, Throwable error) { unpublish(d); }
+
+            @Override
+            public void cancelled(Downloader d) { unpublish(d); }
+        });
+        String name = Downloader.fileNameFor(downloader.getUrl());
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/stream/" + id + "/"
+                + URLEncoder.encode(name, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+
+    public static void unpublish(Downloader downloader) {
+        published.values().remove(downloader);
+    }
+
+    public static synchronized void start(int port) throws IOException {
+        if (server != null) return;
+        HttpServer s = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        s.createContext("/stream/", exchange -> {
+            try {
+                serve(exchange);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                // The player closed the connection, e.g. to seek somewhere else
+            } finally {
+                exchange.close();
+            }
+        });
+        // Requests block until their bytes arrive, so each gets its own thread. Not a virtual
+        // one: HttpServer writes the body inside synchronized, which pins the carrier while the
+        // player is slow to read, and with one core the downloads could not run at all.
+        s.setExecutor(Executors.newCachedThreadPool(Thread.ofPlatform().name("stream-", 0).daemon().factory()));
+        s.start();
+        server = s;
+    }
+
+    public static synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+        published.clear();
+    }
+
+    private static void serve(HttpExchange exchange) throws IOException, InterruptedException {
+        String[] parts = exchange.getRequestURI().getPath().split("/");
+        Downloader downloader = parts.length > 2 ? published.get(parts[2]) : null;
+        if (downloader == null) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        String method = exchange.getRequestMethod();
+        boolean head = method.equals("HEAD");
+        if (!head && !method.equals("GET")) {
+            exchange.getResponseHeaders().add("Allow", "GET, HEAD");
+            exchange.sendResponseHeaders(405, -1);
+            return;
+        }
+
+        exchange.getResponseHeaders().add("Content-Type", contentType(downloader.getUrl()));
+        exchange.getResponseHeaders().add("Cache-Control", "no-store");
+        // A player asking before the download started: by its first byte the size is known, if the server tells it
+        awaitData(downloader, 0);
+        long total = downloader.getDataSize();
+        if (total < 0) {
+            // Size unknown until the end, so no ranges: stream from the start as it arrives
+            exchange.sendResponseHeaders(200, head ? -1 : 0);
+            if (!head) copy(downloader, 0, Long.MAX_VALUE, exchange.getResponseBody());
+            return;
+        }
+        exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+
+        long start = 0;
+        long end = total - 1;
+        int status = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        Matcher m = range != null ? RANGE.matcher(range.trim()) : null;
+        if (m != null && m.matches() && !(m.group(1).isEmpty() && m.group(2).isEmpty())) {
+            if (m.group(1).isEmpty()) {
+                start = Math.max(0, total - Long.parseLong(m.group(2))); // Suffix: the last n bytes
+            } else {
+                start = Long.parseLong(m.group(1));
+                if (!m.group(2).isEmpty()) end = Math.min(end, Long.parseLong(m.group(2)));
+            }
+            if (start >= total || start > end) {
+                exchange.getResponseHeaders().add("Content-Range", "bytes */" + total);
+                exchange.sendResponseHeaders(416, -1);
+                return;
+            }
+            status = 206;
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + total);
+        }
+        // Anything else, e.g. several ranges at once, gets the whole file
+        long length = end - start + 1;
+        if (head) exchange.getResponseHeaders().add("Content-Length", Long.toString(length));
+        exchange.sendResponseHeaders(status, head || length == 0 ? -1 : length);
+        if (!head) copy(downloader, start, end, exchange.getResponseBody());
+    }
+
+    /** Sends bytes {@code start} to {@code end} as they become available; stops early if the download ends short of them. */
+    private static void copy(Downloader downloader, long start, long end, OutputStream out)
+            throws IOException, InterruptedException {
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+        FileChannel channel = null;
+        try (out) {
+            long position = start;
+            while (position <= end) {
+                long available = awaitData(downloader, position);
+                if (available <= 0) return;
+                if (channel == null) channel = open(downloader);
+                // end may be Long.MAX_VALUE, so no end - position + 1
+                buffer.clear().limit((int) Math.min(buffer.capacity(), Math.min(available - 1, end - position) + 1));
+                int n = channel.read(buffer, position);
+                if (n < 0) return; // A single-stream retry started the file over
+                out.write(buffer.array(), 0, n);
+                position += n;
+            }
+        } finally {
+            if (channel != null) channel.close();
+        }
+    }
+
+    /**
+     * Waits until the byte at {@code position} is on disk and returns how many
+     * follow it without a gap; 0 if the download stopped before getting there.
+     */
+    private static long awaitData(Downloader downloader, long position) throws InterruptedException {
+        boolean asked = false;
+        while (true) {
+            long available = downloader.availableFrom(position);
+            if (available > 0) return available;
+            if (downloader.isFinished()) return 0;
+            if (!asked) {
+                // Probably a seek ahead of the download, fetch from there next
+                downloader.prioritize(position);
+                asked = true;
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+    }
+
+    /**
+     * Opens whichever file holds the data now. The open channel keeps working
+     * when the part file is renamed on completion; only opening can miss it.
+     */
+    private static FileChannel open(Downloader downloader) throws IOException {
+        Path path = downloader.getDataPath();
+        try {
+            return FileChannel.open(path, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return FileChannel.open(downloader.getDataPath(), StandardOpenOption.READ);
+        }
+    }
+
+    private static String contentType(String urlString) {
+        String type = MEDIA_TYPES.get(LinkHarvester.extensionOf(urlString));
+        if (type == null) type = URLConnection.guessContentTypeFromName(Downloader.fileNameFor(urlString));
+        return type != null ? type : "application/octet-stream";
+    }
+}
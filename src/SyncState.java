@@ -0,0 +1,110 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Sidecar written next to a file fetched in sync mode ("file.mp3.twiby-sync").
+ * It records the URL the file came from and the ETag, Last-Modified and size
+ * the server reported, so the next sync can ask whether anything changed
+ * instead of downloading the file again.
+ */
+public class SyncState {
+
+    public static final String SUFFIX = ".twiby-sync";
+
+    private final String url;
+    private final long size;
+    private final String etag;
+    private final String lastModified;
+
+    public SyncState(String url, RemoteFileInfo info) {
+        this(url, info.getSize(), info.getEtag(), info.getLastModified());
+    }
+
+    private SyncState(String url, long size, String etag, String lastModified) {
+        this.url = url;
+        this.size = size;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    /** The sidecar of {@code file}, or null if it has none or it cannot be read. */
+    public static SyncState load(Path file) {
+        Path path = sidecarOf(file);
+        if (!Files.exists(path)) return null;
+        Properties props = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            props.load(reader);
+            return new SyncState(props.getProperty("url"),
+                    Long.parseLong(props.getProperty("size", "-1")),
+                    props.getProperty("etag"),
+                    props.getProperty("lastModified"));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring unreadable " + path + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * The local copy an earlier sync made of {@code url}: {@code base} or one of
+     * its numbered variants if another URL already had that name. Null if none.
+     */
+    public static Path find(Path base, String url) {
+        for (int n = 0; ; n++) {
+            Path candidate = OutputFile.numbered(base, n);
+            if (!Files.exists(candidate) && !Files.exists(sidecarOf(candidate))) return null;
+            SyncState state = load(candidate);
+            if (state != null && url.equals(state.url)) return candidate;
+        }
+    }
+
+    public void save(Path file) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("url", url);
+        props.setProperty("size", Long.toString(size));
+        if (etag != null) props.setProperty("etag", etag);
+        if (lastModified != null) props.setProperty("lastModified", lastModified);
+
+        Path path = sidecarOf(file);
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            props.store(writer, "TwibyDownloader sync state");
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** True if {@code file} still looks like what was downloaded, i.e. nobody replaced or truncated it. */
+    public boolean describes(Path file) throws IOException {
+        return Files.isRegularFile(file) && (size < 0 || Files.size(file) == size);
+    }
+
+    /** True if there is something to send in If-None-Match or If-Modified-Since. */
+    public boolean hasValidator() {
+        return etag != null || lastModified != null;
+    }
+
+    /**
+     * True if a fresh answer from the server shows the same file: same size and
+     * the same strong ETag, or the same Last-Modified if there was no ETag.
+     * For servers that ignore conditional requests and simply answer 200.
+     */
+    public boolean isUnchanged(RemoteFileInfo info) {
+        if (info.getSize() != size) return false;
+        if (etag != null && !etag.startsWith("W/")) return etag.equals(info.getEtag());
+        return etag == null && lastModified != null && lastModified.equals(info.getLastModified());
+    }
+
+    public String getUrl() { return url; }
+    public long getSize() { return size; }
+    public String getEtag() { return etag; }
+    public String getLastModified() { return lastModified; }
+
+    private static Path sidecarOf(Path file) {
+        return file.resolveSibling(file.getFileName() + SUFFIX);
+    }
+}
@@ -1,22 +1,104 @@
-import java.io.BufferedReader;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.Reader;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 
 public class WebUtils {
+
+    private static final int CHUNK_CHARS = 8192;
+
+    /** Receives page text as it is decoded. Returning false stops the download. */
+    public interface ChunkHandler {
+        boolean onChunk(String text);
+    }
+
+    /** Bytes a page fetch moved over the wire and after decompression; updated while it streams. */
+    public static class TransferSize {
+        private volatile long wireBytes;
+        private volatile long decodedBytes;
+        private volatile String encoding;
+
+        public long getWireBytes() { return wireBytes; }
+        public long getDecodedBytes() { return decodedBytes; }
+        /** Content-Encoding of the response, null if it was sent as is. */
+        public String getEncoding() { return encoding; }
+    }
+
     public static String readWebsiteSource(String urlString) throws Exception {
         StringBuilder sb = new StringBuilder();
-        URL url = new URL(urlString);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("GET");
-
-        try (BufferedReader reader = new BufferedReader(
-                new InputStreamReader(conn.getInputStream(), "UTF-8"))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                sb.append(line).append("\n");
+        streamWebsiteSource(urlString, Integer.MAX_VALUE, text -> {
+            sb.append(text);
+            return true;
+        });
+        return sb.toString();
+    }
+
+    /**
+     * Streams the page at {@code urlString} to {@code handler} in chunks, decoded
+     * with the charset the server declared (UTF-8 if none). Stops after
+     * {@code maxChars} characters and returns true if the page was cut short.
+     */
+    public static boolean streamWebsiteSource(String urlString, int maxChars, ChunkHandler handler) throws Exception {
+        return streamWebsiteSource(urlString, maxChars, handler, new TransferSize());
+    }
+
+    /**
+     * Same as above, asking for a gzip or deflate response and decompressing it
+     * on the fly. {@code size} follows the wire and decoded byte counts.
+     */
+    public static boolean streamWebsiteSource(String urlString, int maxChars, ChunkHandler handler,
+                                              TransferSize size) throws Exception {
+        HttpRequest request = HttpClients.request(urlString)
+                .header("Accept-Encoding", ContentEncoding.ACCEPT)
+                .GET().build();
+        HttpResponse<InputStream> response = HttpClients.send(HttpClients.shared(), request, HttpResponse.BodyHandlers.ofInputStream());
+        if (response.statusCode() >= 400) {
+            response.body().close();
+            throw HttpStatusException.of("Could not load " + urlString, response);
+        }
+        Charset charset = charsetOf(response.headers().firstValue("Content-Type").orElse(null));
+        String encoding = response.headers().firstValue("Content-Encoding").orElse(null);
+        size.encoding = ContentEncoding.isEncoded(encoding) ? encoding : null;
+
+        ContentEncoding.CountingInputStream wire = new ContentEncoding.CountingInputStream(response.body());
+        ContentEncoding.CountingInputStream decoded =
+                new ContentEncoding.CountingInputStream(ContentEncoding.decode(wire, encoding));
+        try (Reader reader = new InputStreamReader(decoded, charset)) {
+            char[] buffer = new char[CHUNK_CHARS];
+            long total = 0;
+            int read;
+            while ((read = reader.read(buffer, 0, (int) Math.min(buffer.length, maxChars - total))) > 0) {
+                total += read;
+                size.wireBytes = wire.getCount();
+                size.decodedBytes = decoded.getCount();
+                if (!handler.onChunk(new String(buffer, 0, read))) {
+                    return false;
+                }
+                if (total >= maxChars) {
+                    return true;
+                }
             }
         }
-        return sb.toString();
+        return false;
+    }
+
+    /** Charset from a Content-Type header such as {@code text/html; charset=ISO-8859-1}. */
+    static Charset charsetOf(String contentType) {
+        if (contentType != null) {
+            for (String param : contentType.split(";")) {
+                String[] pair = param.trim().split("=", 2);
+                if (pair.length == 2 && pair[0].trim().equalsIgnoreCase("charset")) {
+                    try {
+                        return Charset.forName(pair[1].trim().replace("\"", ""));
+                    } catch (IllegalArgumentException ignored) {
+                        // Unknown or malformed charset name, fall back below
+                    }
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
     }
 }
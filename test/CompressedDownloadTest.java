@@ -0,0 +1,149 @@
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Text files come compressed from a server that also serves byte ranges, as
+ * static file servers and CDNs do. A gzip body that stops arriving halfway
+ * must time out and be retried like an identity one, not leave the download
+ * blocked inside the decoder.
+ */
+class CompressedDownloadTest {
+
+    @TempDir
+    Path outputDirectory;
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger requests = new AtomicInteger();
+    // Range and Accept-Encoding of every GET, "-" where the header was missing
+    private final List<String> gets = new CopyOnWriteArrayList<>();
+    private volatile boolean stallFirstRequest = false;
+    private HttpServer server;
+    private byte[] content;
+    private byte[] compressed;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        // Random words: compresses, but not so well that the body fits in one read.
+        // Below the size at which a download is split into ranges.
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 1_500_000) {
+            text.append(random.nextInt(1_000_000)).append(random.nextBoolean() ? ',' : '\n');
+        }
+        content = text.toString().getBytes(StandardCharsets.US_ASCII);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(content);
+        }
+        compressed = bytes.toByteArray();
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "text/csv");
+            exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.getResponseHeaders().add("Content-Length", Integer.toString(content.length));
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+                return;
+            }
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            gets.add((range != null ? range : "-") + " " + (accept != null ? accept : "-"));
+            boolean gzip = range == null && accept != null && accept.contains("gzip");
+            byte[] body = gzip ? compressed : content;
+            if (gzip) exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                if (requests.incrementAndGet() == 1 && stallFirstRequest) {
+                    // A third of the body, then silence until the test is over
+                    out.write(body, 0, body.length / 3);
+                    out.flush();
+                    release.await();
+                    return;
+                }
+                out.write(body);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        StallWatchdog.shared().configure(1, 0, 1);
+    }
+
+    @AfterEach
+    void stopServer() {
+        release.countDown();
+        server.stop(0);
+        StallWatchdog.shared().configure(StallWatchdog.DEFAULT_READ_TIMEOUT_SECONDS, StallWatchdog.DEFAULT_MIN_RATE,
+                StallWatchdog.DEFAULT_STALL_SECONDS);
+    }
+
+    @Test
+    void smallTextFileComesCompressedThoughRangesAreServed() throws IOException {
+        Downloader downloader = newDownloader();
+
+        assertTimeoutPreemptively(Duration.ofSeconds(30), downloader::run);
+
+        assertEquals(List.of("- " + ContentEncoding.ACCEPT), gets, "expected one whole-file request asking for gzip");
+        assertArrayEquals(content, Files.readAllBytes(downloader.getTargetPath()));
+        assertEquals(compressed.length, downloader.getMetrics().getBytesReceived());
+        assertTrue(Files.notExists(Path.of(downloader.getTargetPath() + DownloadJournal.SUFFIX)));
+    }
+
+    @Test
+    void stalledGzipBodyTimesOutAndIsRetried() throws IOException {
+        stallFirstRequest = true;
+        Downloader downloader = newDownloader();
+        AtomicInteger failures = new AtomicInteger();
+        downloader.addListener(new DownloadListener() {
+            @Override
+            public void failed(Downloader d, Throwable error) {
+                failures.incrementAndGet();
+            }
+        });
+
+        assertTimeoutPreemptively(Duration.ofSeconds(30), downloader::run);
+
+        assertEquals(0, failures.get(), "download failed: " + downloader.getLastRetryCause());
+        assertTrue(downloader.getRetryCount() >= 1, "the stalled response was never given up on");
+        assertTrue(downloader.getLastRetryCause().startsWith("Transfer stalled"), downloader.getLastRetryCause());
+        assertArrayEquals(content, Files.readAllBytes(downloader.getTargetPath()));
+        assertTrue(requests.get() >= 2);
+        assertTrue(gets.get(0).endsWith(ContentEncoding.ACCEPT), "the stalled request was not compressed: " + gets.get(0));
+    }
+
+    private Downloader newDownloader() {
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/data.csv";
+        Downloader downloader = new Downloader(url, -1);
+        downloader.setOutputDirectory(outputDirectory);
+        downloader.setRetryPolicy(new RetryPolicy(2, 100, 100));
+        return downloader;
+    }
+}
@@ -0,0 +1,99 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The status index must follow a record through its life, both while the
+ * store is open and after it was loaded back from the log, and a crash
+ * halfway through an append must not cost more than that one record.
+ */
+class DownloadStoreTest {
+
+    private static final String URL = "http://example.com/file.bin";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void recordChangedInPlaceMovesBetweenStatuses() throws IOException {
+        Path log = directory.resolve(DownloadStore.DEFAULT_FILE);
+        try (DownloadStore store = DownloadStore.open(log)) {
+            // What the GUI does: one record object, changed and put again at each step
+            DownloadRecord record = new DownloadRecord(URL, 1000);
+            store.put(record);
+            assertStatuses(store, DownloadRecord.Status.QUEUED);
+
+            record.started();
+            store.put(record);
+            assertStatuses(store, DownloadRecord.Status.RUNNING);
+
+            record.finished(DownloadRecord.Status.FAILED, "Connection reset");
+            store.put(record);
+            assertStatuses(store, DownloadRecord.Status.FAILED);
+
+            record.started();
+            store.put(record);
+            record.finished(DownloadRecord.Status.COMPLETED, null);
+            store.put(record);
+            assertStatuses(store, DownloadRecord.Status.COMPLETED);
+        }
+        try (DownloadStore store = DownloadStore.open(log)) {
+            assertStatuses(store, DownloadRecord.Status.COMPLETED);
+        }
+    }
+
+    @Test
+    void removedRecordLeavesEveryStatus() throws IOException {
+        try (DownloadStore store = DownloadStore.open(directory.resolve(DownloadStore.DEFAULT_FILE))) {
+            DownloadRecord record = new DownloadRecord(URL, 1000);
+            store.put(record);
+            record.started();
+            store.put(record);
+            store.remove(URL);
+            for (DownloadRecord.Status status : DownloadRecord.Status.values()) {
+                assertTrue(store.withStatus(status).isEmpty(), status + " still lists the removed URL");
+            }
+            assertTrue(store.all().isEmpty());
+        }
+    }
+
+    @Test
+    void recordAfterTornLineSurvives() throws IOException {
+        Path log = directory.resolve(DownloadStore.DEFAULT_FILE);
+        try (DownloadStore store = DownloadStore.open(log)) {
+            store.put(new DownloadRecord(URL, 1000));
+        }
+        // A crash halfway through the next append
+        Files.writeString(log, "P\thttp://example.com/torn.bin\tQUE", StandardOpenOption.APPEND);
+
+        String next = "http://example.com/next.bin";
+        try (DownloadStore store = DownloadStore.open(log)) {
+            store.put(new DownloadRecord(next, 2000));
+        }
+        try (DownloadStore store = DownloadStore.open(log)) {
+            assertEquals(List.of(URL, next), store.all().stream().map(DownloadRecord::getUrl).toList());
+        }
+    }
+
+    /** The URL is filed under {@code expected} and under no other status. */
+    private static void assertStatuses(DownloadStore store, DownloadRecord.Status expected) {
+        for (DownloadRecord.Status status : DownloadRecord.Status.values()) {
+            List<DownloadRecord> records = store.withStatus(status);
+            if (status == expected) {
+                assertEquals(1, records.size(), status.toString());
+                assertEquals(URL, records.get(0).getUrl());
+                assertEquals(expected, records.get(0).getStatus());
+            } else {
+                assertTrue(records.isEmpty(), "URL also listed as " + status);
+            }
+        }
+    }
+}